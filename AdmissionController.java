@@ -0,0 +1,154 @@
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decides at accept time whether the server can take one more connection.
+ *
+ * A connection is refused while any of these is over its limit (0 = no limit):
+ *   SESSIONS    open connections, logged in or not
+ *   HANDSHAKES  connections accepted but not through the TLS handshake yet
+ *   HEAP        heap left in use by the last GC, as a percentage of the maximum heap
+ *   OUTBOUND    frames queued for writing, summed over all sessions
+ *
+ * The two counts are exact and kept here. Heap and outbound frames are sampled by the
+ * server every few hundred milliseconds with update(), so a check costs no more than
+ * reading a few fields. Refused clients are told to retry after retryAfterMillis(),
+ * spread over [base, 2 * base) so they do not all come back at the same moment.
+ */
+public class AdmissionController {
+
+    public enum Reason { SESSIONS, HANDSHAKES, HEAP, OUTBOUND }
+
+    private final int maxSessions;
+    private final int maxPendingHandshakes;
+    private final int maxHeapPercent;
+    private final long maxQueuedFrames;
+    private final long retryAfterMillis;
+
+    private final AtomicInteger sessions = new AtomicInteger();
+    private final AtomicInteger pendingHandshakes = new AtomicInteger();
+    private volatile int heapPercent;
+    private volatile long queuedFrames;
+
+    public AdmissionController(int maxSessions, int maxPendingHandshakes, int maxHeapPercent, long maxQueuedFrames,
+                               long retryAfterMillis) {
+        this.maxSessions = maxSessions;
+        this.maxPendingHandshakes = maxPendingHandshakes;
+        this.maxHeapPercent = maxHeapPercent;
+        this.maxQueuedFrames = maxQueuedFrames;
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    /**
+     * Admit one connection, or return why not. An admitted connection counts as a session
+     * and as a pending handshake until handshakeDone() and closed() are called for it.
+     */
+    public Reason tryAdmit() {
+        Reason reason = overloadReason();
+        if (reason != null) {
+            return reason;
+        }
+        // Reserve first, then re-check, so a burst of accepts cannot overshoot the limits
+        int s = sessions.incrementAndGet();
+        int h = pendingHandshakes.incrementAndGet();
+        if (maxSessions > 0 && s > maxSessions) {
+            release(true);
+            return Reason.SESSIONS;
+        }
+        if (maxPendingHandshakes > 0 && h > maxPendingHandshakes) {
+            release(true);
+            return Reason.HANDSHAKES;
+        }
+        return null;
+    }
+
+    // The handshake of an admitted connection finished, successfully or not
+    public void handshakeDone() {
+        pendingHandshakes.decrementAndGet();
+    }
+
+    // An admitted connection is gone; pending = its handshake never finished
+    public void closed(boolean pending) {
+        release(pending);
+    }
+
+    private void release(boolean pending) {
+        sessions.decrementAndGet();
+        if (pending) {
+            pendingHandshakes.decrementAndGet();
+        }
+    }
+
+    // Latest samples of the gauges that are too costly to compute per accept
+    public void update(int heapPercent, long queuedFrames) {
+        this.heapPercent = heapPercent;
+        this.queuedFrames = queuedFrames;
+    }
+
+    // The first limit currently exceeded (or reached, for the counts), null if none
+    public Reason overloadReason() {
+        if (maxSessions > 0 && sessions.get() >= maxSessions) {
+            return Reason.SESSIONS;
+        }
+        if (maxPendingHandshakes > 0 && pendingHandshakes.get() >= maxPendingHandshakes) {
+            return Reason.HANDSHAKES;
+        }
+        if (maxHeapPercent > 0 && heapPercent >= maxHeapPercent) {
+            return Reason.HEAP;
+        }
+        if (maxQueuedFrames > 0 && queuedFrames >= maxQueuedFrames) {
+            return Reason.OUTBOUND;
+        }
+        return null;
+    }
+
+    public long retryAfterMillis() {
+        return retryAfterMillis + ThreadLocalRandom.current().nextLong(Math.max(1, retryAfterMillis));
+    }
+
+    // Content of the ERROR_RESPONSE sent to refused clients: "Server busy (heap), retry after 1500 ms"
+    private static final String BUSY_PREFIX = "Server busy (";
+    private static final String RETRY_AFTER = "), retry after ";
+    private static final String MILLIS_SUFFIX = " ms";
+
+    public static String busyNotice(Reason reason, long retryAfterMillis) {
+        return BUSY_PREFIX + reason.name().toLowerCase() + RETRY_AFTER + retryAfterMillis + MILLIS_SUFFIX;
+    }
+
+    /**
+     * The retry delay of a busy notice made by busyNotice(), or -1 if the content is
+     * anything else (including any other ERROR_RESPONSE).
+     */
+    public static long parseRetryAfter(String content) {
+        if (content == null || !content.startsWith(BUSY_PREFIX) || !content.endsWith(MILLIS_SUFFIX)) {
+            return -1;
+        }
+        int from = content.indexOf(RETRY_AFTER);
+        if (from < 0) {
+            return -1;
+        }
+        try {
+            long millis = Long.parseLong(content.substring(from + RETRY_AFTER.length(),
+                    content.length() - MILLIS_SUFFIX.length()));
+            return millis >= 0 ? millis : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    public int getSessions() {
+        return sessions.get();
+    }
+
+    public int getPendingHandshakes() {
+        return pendingHandshakes.get();
+    }
+
+    public int getHeapPercent() {
+        return heapPercent;
+    }
+
+    public long getQueuedFrames() {
+        return queuedFrames;
+    }
+}
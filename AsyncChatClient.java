@@ -0,0 +1,477 @@
+import java.io.*;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.net.ssl.*;
+
+/**
+ * Programmatic, non-blocking chat client for bots and services.
+ *
+ * - send() only queues the frame and returns a CompletableFuture completed once it is flushed
+ * - one writer thread batches queued frames into a single flush
+ * - incoming messages are dispatched to listeners registered per MessageType
+ * - on connection loss the client reconnects with backoff, resuming the TLS session
+ *   (same SSLContext, same host/port) and replaying the last login and room join;
+ *   a server refusing connections while overloaded sets the minimum delay
+ * - large payloads go through sendStream() as flow-controlled chunked transfers;
+ *   incoming ones are written to the streams opened by onTransfer()'s handler
+ */
+public class AsyncChatClient {
+
+    public interface MessageListener {
+        void onMessage(ChatMessage msg);
+    }
+
+    private static final int MAX_BATCH_BYTES = 64 * 1024;
+
+    private final String host;
+    private final int port;
+    private final ChatConfig config;
+
+    // One factory for the whole client lifetime so reconnects can resume the TLS session
+    private final SSLSocketFactory factory;
+
+    private final Map<MessageType, List<MessageListener>> listeners = new EnumMap<>(MessageType.class);
+    private final List<MessageListener> anyListeners = new CopyOnWriteArrayList<>();
+    private final BlockingQueue<PendingWrite> outbox;
+
+    private final Object connectionLock = new Object();
+    private final Object writeLock = new Object();
+    private volatile Connection connection;
+    private volatile boolean running = false;
+
+    // Replayed after a reconnect
+    private volatile String username;
+    private volatile String currentRoom;
+
+    // Message IDs let the server drop resends after a reconnect; seeded from the clock
+    // so a restarted client does not reuse recent IDs
+    private final AtomicLong nextMessageId = new AtomicLong(System.currentTimeMillis() << 20);
+
+    // Chunked transfers: ours by transfer ID, and the receiving side (null = ignored)
+    private final Map<Long, OutgoingTransfer> outgoing = new ConcurrentHashMap<>();
+    private volatile IncomingTransfers incoming;
+
+    private long reconnectDelayMillis = 500;
+    private long maxReconnectDelayMillis = 30_000;
+    // From the server's last busy notice (see AdmissionController.busyNotice), 0 = none
+    private volatile long serverRetryAfterMillis;
+
+    /**
+     * Completes once the message is flushed. Keep the message ID to resend the same message
+     * after a failure: the server drops the copy if the first one did get through.
+     */
+    public static final class SendFuture extends CompletableFuture<Void> {
+        private final long messageId;
+
+        SendFuture(long messageId) {
+            this.messageId = messageId;
+        }
+
+        public long getMessageId() {
+            return messageId;
+        }
+    }
+
+    private static final class PendingWrite {
+        final byte[] data;
+        final CompletableFuture<Void> future;
+
+        PendingWrite(byte[] data, CompletableFuture<Void> future) {
+            this.data = data;
+            this.future = future;
+        }
+    }
+
+    private static final class Connection {
+        final SSLSocket socket;
+        final OutputStream out;
+        volatile boolean closed = false;
+
+        Connection(SSLSocket socket) throws IOException {
+            this.socket = socket;
+            this.out = new BufferedOutputStream(socket.getOutputStream(), MAX_BATCH_BYTES);
+        }
+
+        void close() {
+            closed = true;
+            try {
+                socket.close();
+            } catch (IOException ignored) {}
+        }
+    }
+
+    public AsyncChatClient(String host, int port, boolean trustAllCerts) throws Exception {
+        this(host, port, trustAllCerts, new ChatConfig(), 10_000);
+    }
+
+    public AsyncChatClient(String host, int port, boolean trustAllCerts, ChatConfig config,
+                           int sendQueueCapacity) throws Exception {
+        this.host = host;
+        this.port = port;
+        this.config = config;
+        this.factory = SSLClient.createSSLContext(trustAllCerts).getSocketFactory();
+        this.outbox = new LinkedBlockingQueue<>(sendQueueCapacity);
+        for (MessageType type : MessageType.values()) {
+            listeners.put(type, new CopyOnWriteArrayList<>());
+        }
+    }
+
+    public AsyncChatClient on(MessageType type, MessageListener listener) {
+        listeners.get(type).add(listener);
+        return this;
+    }
+
+    public AsyncChatClient onAny(MessageListener listener) {
+        anyListeners.add(listener);
+        return this;
+    }
+
+    public AsyncChatClient onTransfer(IncomingTransfers.Handler handler) {
+        this.incoming = new IncomingTransfers(handler);
+        return this;
+    }
+
+    public void setReconnectDelay(long initialMillis, long maxMillis) {
+        this.reconnectDelayMillis = initialMillis;
+        this.maxReconnectDelayMillis = maxMillis;
+    }
+
+    public boolean isConnected() {
+        Connection c = connection;
+        return c != null && !c.closed;
+    }
+
+    // Blocks until the first connection is up, everything after that is asynchronous
+    public void connect() throws IOException {
+        connection = openConnection();
+        running = true;
+        startThread(this::writeLoop, "chat-writer");
+        startThread(this::readLoop, "chat-reader");
+    }
+
+    public void close() {
+        running = false;
+        Connection c = connection;
+        if (c != null) {
+            c.close();
+        }
+        synchronized (connectionLock) {
+            connectionLock.notifyAll();
+        }
+        PendingWrite p;
+        while ((p = outbox.poll()) != null) {
+            p.future.completeExceptionally(new IOException("Client closed"));
+        }
+    }
+
+    // === Sending ===
+
+    public CompletableFuture<Void> send(ChatMessage msg) {
+        return send(msg, new CompletableFuture<>());
+    }
+
+    private <F extends CompletableFuture<Void>> F send(ChatMessage msg, F future) {
+        PendingWrite pending = new PendingWrite(MessageSerializer.serialize(msg), future);
+        if (!running) {
+            future.completeExceptionally(new IOException("Client not connected"));
+        } else if (!outbox.offer(pending)) {
+            future.completeExceptionally(new IOException("Send queue full"));
+        }
+        return future;
+    }
+
+    public CompletableFuture<Void> login(String username) {
+        this.username = username;
+        return send(loginRequest());
+    }
+
+    public CompletableFuture<Void> join(String roomId) {
+        this.currentRoom = roomId;
+        return send(joinRequest());
+    }
+
+    // Results arrive as SEARCH_RESPONSE messages; before = cursor from the previous page (0 = newest)
+    public CompletableFuture<Void> search(String query, long before) {
+        ChatMessage request = new ChatMessage(MessageType.SEARCH_REQUEST, username, null, currentRoom, query,
+                System.currentTimeMillis());
+        request.setMessageId(before);
+        return send(request);
+    }
+
+    public SendFuture sendText(String content) {
+        return sendText(nextMessageId.incrementAndGet(), content);
+    }
+
+    // A resend: messageId comes from the SendFuture of the first attempt
+    public SendFuture sendText(long messageId, String content) {
+        return sendWithId(messageId, new ChatMessage(MessageType.TEXT_MESSAGE, username, null, currentRoom, content,
+                System.currentTimeMillis()));
+    }
+
+    public SendFuture sendPrivate(String recipient, String content) {
+        return sendPrivate(nextMessageId.incrementAndGet(), recipient, content);
+    }
+
+    public SendFuture sendPrivate(long messageId, String recipient, String content) {
+        return sendWithId(messageId, new ChatMessage(MessageType.PRIVATE_MESSAGE, username, recipient, null, content,
+                System.currentTimeMillis()));
+    }
+
+    /**
+     * Stream data to a user (or, with recipient null, to the current room) in chunks of
+     * transfer.chunk.bytes, on a background thread. Completes with the number of bytes
+     * sent, or exceptionally if the server rejects or aborts the transfer.
+     * The caller keeps ownership of the stream.
+     */
+    public CompletableFuture<Long> sendStream(String recipient, String name, long size, InputStream data) {
+        CompletableFuture<Long> result = new CompletableFuture<>();
+        OutgoingTransfer transfer = new OutgoingTransfer(msg -> {
+            if (send(msg).isCompletedExceptionally()) {
+                throw new IOException("Send queue full or client closed");
+            }
+        }, username, recipient, recipient == null ? currentRoom : null, config.getTransferChunkBytes());
+
+        outgoing.put(transfer.getId(), transfer);
+        startThread(() -> {
+            try {
+                result.complete(transfer.run(name, size, data));
+            } catch (IOException e) {
+                result.completeExceptionally(e);
+            } finally {
+                outgoing.remove(transfer.getId());
+            }
+        }, "chat-transfer");
+        return result;
+    }
+
+    // The server recognises a retry by its ID, so a resend must carry the first attempt's
+    private SendFuture sendWithId(long messageId, ChatMessage msg) {
+        msg.setMessageId(messageId);
+        return send(msg, new SendFuture(messageId));
+    }
+
+    private ChatMessage loginRequest() {
+        return new ChatMessage(MessageType.LOGIN_REQUEST, username, null, null, null, System.currentTimeMillis());
+    }
+
+    private ChatMessage joinRequest() {
+        return new ChatMessage(MessageType.JOIN_ROOM_REQUEST, username, null, currentRoom, null,
+                System.currentTimeMillis());
+    }
+
+    // === Connection handling ===
+
+    private Connection openConnection() throws IOException {
+        SSLSocket socket = SSLClient.openSocket(factory, host, port, config);
+        try {
+            socket.startHandshake();
+            return new Connection(socket);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    private void reconnect(Connection failed) {
+        failed.close();
+
+        // The server dropped our transfers with the connection
+        for (OutgoingTransfer t : outgoing.values()) {
+            t.abort("aborted: connection lost");
+        }
+        IncomingTransfers in = incoming;
+        if (in != null) {
+            in.abortAll();
+        }
+        long delay = reconnectDelayMillis;
+
+        while (running) {
+            try {
+                long retryAfter = serverRetryAfterMillis;
+                serverRetryAfterMillis = 0;
+                Thread.sleep(Math.max(delay, retryAfter));
+                Connection c = openConnection();
+
+                // Restore login and room before queued traffic goes out
+                synchronized (writeLock) {
+                    if (username != null) {
+                        c.out.write(MessageSerializer.serialize(loginRequest()));
+                        if (currentRoom != null) {
+                            c.out.write(MessageSerializer.serialize(joinRequest()));
+                        }
+                        c.out.flush();
+                    }
+                }
+
+                synchronized (connectionLock) {
+                    connection = c;
+                    connectionLock.notifyAll();
+                }
+                return;
+
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException e) {
+                delay = Math.min(delay * 2, maxReconnectDelayMillis);
+            }
+        }
+    }
+
+    private Connection awaitConnection() throws InterruptedException {
+        synchronized (connectionLock) {
+            while (running && (connection == null || connection.closed)) {
+                connectionLock.wait();
+            }
+            return running ? connection : null;
+        }
+    }
+
+    private void writeLoop() {
+        List<PendingWrite> batch = new ArrayList<>();
+
+        while (running) {
+            try {
+                PendingWrite first = outbox.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                int bytes = first.data.length;
+                PendingWrite next;
+                while (bytes < MAX_BATCH_BYTES && (next = outbox.poll()) != null) {
+                    batch.add(next);
+                    bytes += next.data.length;
+                }
+
+                Connection c = awaitConnection();
+                if (c == null) {
+                    fail(batch, new IOException("Client closed"));
+                    continue;
+                }
+
+                try {
+                    synchronized (writeLock) {
+                        for (PendingWrite p : batch) {
+                            c.out.write(p.data);
+                        }
+                        c.out.flush();
+                    }
+                    for (PendingWrite p : batch) {
+                        p.future.complete(null);
+                    }
+                } catch (IOException e) {
+                    // The reader notices the closed socket and reconnects
+                    c.close();
+                    fail(batch, e);
+                }
+                batch.clear();
+
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+    }
+
+    private void readLoop() {
+        while (running) {
+            Connection c = connection;
+            try {
+                InputStream in = new BufferedInputStream(c.socket.getInputStream());
+                while (running) {
+                    ChatMessage msg = SSLClient.readMessage(in, config.getMaxFrameBytes());
+                    if (msg == null) {
+                        throw new EOFException("Server closed the connection");
+                    }
+                    dispatch(msg);
+                }
+            } catch (Exception e) {
+                if (running) {
+                    reconnect(c);
+                }
+            }
+        }
+    }
+
+    private void dispatch(ChatMessage msg) {
+        if (msg.getType() == MessageType.PING) {
+            send(new ChatMessage(MessageType.PONG, username, null, null, null, System.currentTimeMillis()));
+        } else if (msg.getType() == MessageType.ERROR_RESPONSE) {
+            long retryAfter = AdmissionController.parseRetryAfter(msg.getContent());
+            if (retryAfter >= 0) {
+                serverRetryAfterMillis = retryAfter;    // the server is about to close: over capacity
+            }
+        }
+        handleTransfer(msg);
+        for (MessageListener l : listeners.get(msg.getType())) {
+            deliver(l, msg);
+        }
+        for (MessageListener l : anyListeners) {
+            deliver(l, msg);
+        }
+    }
+
+    private void handleTransfer(ChatMessage msg) {
+        switch (msg.getType()) {
+            case TRANSFER_CREDIT: {
+                OutgoingTransfer t = outgoing.get(msg.getMessageId());
+                if (t != null) {
+                    t.credit(Integer.parseInt(msg.getContent()));
+                }
+                return;
+            }
+            case TRANSFER_END:
+                if ("server".equals(msg.getSender())) {
+                    // The server rejected or aborted one of ours
+                    OutgoingTransfer t = outgoing.get(msg.getMessageId());
+                    if (t != null) {
+                        t.abort(msg.getContent());
+                    }
+                    return;
+                }
+                break;
+            case TRANSFER_START:
+            case TRANSFER_CHUNK:
+                break;
+            default:
+                return;
+        }
+        IncomingTransfers in = incoming;
+        if (in != null) {
+            try {
+                in.handle(msg);
+            } catch (IOException e) {
+                System.err.println("Transfer write failed: " + e.getMessage());
+            }
+        }
+    }
+
+    private static void deliver(MessageListener listener, ChatMessage msg) {
+        try {
+            listener.onMessage(msg);
+        } catch (RuntimeException e) {
+            System.err.println("Listener error: " + e.getMessage());
+        }
+    }
+
+    private static void fail(List<PendingWrite> batch, IOException e) {
+        for (PendingWrite p : batch) {
+            p.future.completeExceptionally(e);
+        }
+        batch.clear();
+    }
+
+    private static void startThread(Runnable r, String name) {
+        Thread t = new Thread(r, name);
+        t.setDaemon(true);
+        t.start();
+    }
+}
@@ -0,0 +1,436 @@
+import java.io.*;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Typed settings for SecureChatServer and the clients.
+ *
+ * Values come from a properties file (--config=server.properties) and can be overridden
+ * on the command line with --key=value. Sizes accept k/m/g suffixes (e.g. 64m).
+ * Every value is checked by validate(); unknown keys are errors, not silently ignored.
+ *
+ * Socket settings (socket.*), tls.profile and frame.max.bytes apply to both server and clients.
+ */
+public class ChatConfig {
+
+    // Server
+    private int port = 8443;
+    private String keystorePath = "server.jks";
+    private String keystorePassword;
+    private long keystoreReloadMillis = 10_000;    // 0 = never check for a new keystore
+    private long metricsLogMillis = 60_000;        // 0 = never log metrics
+    private long handshakeTimeoutMillis = 10_000;
+
+    // Sockets
+    private int acceptBacklog = 128;
+    private boolean reuseAddress = true;
+    private boolean tcpNoDelay = true;
+    private int sendBufferBytes = 0;        // 0 = OS default
+    private int receiveBufferBytes = 0;     // 0 = OS default
+    private int maxFrameBytes = MessageDeserializer.MAX_BODY_LENGTH;
+    private TlsProfile tlsProfile = TlsProfile.MODERN;
+
+    // Threads and queues
+    private int housekeepingThreads = 2;
+    private int writerThreads = 64;
+    private long writeTimeoutMillis = 30_000;
+    private int maxRoomFramesPerSession = 10_000;
+    private long maxOutboundBytesPerSession = 16L * 1024 * 1024;
+    private long timerTickMillis = 100;
+    private int timerWheelSize = 512;
+
+    // Heartbeats, presence, deduplication
+    private long pingIntervalMillis = 30_000;
+    private long idleTimeoutMillis = 90_000;
+    private long presenceWindowMillis = 250;
+    private int presenceMaxRoomSize = 1000;
+    private int dedupCapacity = 4096;
+    private long dedupTtlMillis = 5 * 60_000;
+
+    // Offline private messages
+    private String offlineSpillFile = "offline-messages.dat";
+    private long offlineUserMemoryBytes = 256 * 1024;
+    private long offlineGlobalMemoryBytes = 64L * 1024 * 1024;
+    private long offlineMaxDiskBytes = 1024L * 1024 * 1024;
+    private long offlineSenderMaxBytes = 8L * 1024 * 1024;
+
+    // Room history search; the byte budget is per room and approximate
+    private boolean searchEnabled = true;
+    private int searchRoomMaxMessages = 20_000;
+    private long searchRoomMaxBytes = 8L * 1024 * 1024;
+    private int searchPageSize = 20;
+    private int searchIndexQueue = 65_536;
+
+    // Chunked transfers: chunk size (client side, before Base64), credit window and
+    // concurrent transfers per sender (server side)
+    private int transferChunkBytes = 16 * 1024;
+    private int transferWindowChunks = 8;
+    private int transferMaxPerSession = 4;
+
+    // Admission control at accept time (0 = no limit); see AdmissionController
+    private int admissionMaxSessions = 10_000;
+    private int admissionMaxHandshakes = 64;
+    private int admissionMaxHeapPercent = 90;
+    private long admissionMaxOutboundFrames = 1_000_000;
+    private long admissionRetryAfterMillis = 2_000;
+    private long admissionSampleMillis = 250;
+    private int admissionNoticeQueue = 16;
+
+    // Rate limits, per session and per second (bursts are twice the rate); 0 = unlimited
+    private boolean rateLimitEnabled = true;
+    private RateLimitPolicy.Action rateLimitAction = RateLimitPolicy.Action.REJECT;
+    private double sessionMessagesPerSecond = 50;
+    private long sessionBytesPerSecond = 256 * 1024;
+    private double textMessagesPerSecond = 20;
+    private double privateMessagesPerSecond = 10;
+
+    // Logging and capture
+    private String logFile;                 // null = stdout
+    private long logMaxBytes = 10L * 1024 * 1024;
+    private int logMaxFiles = 5;
+    private EventLog.Level logLevel = EventLog.Level.INFO;
+    private String captureFile;             // null = no capture
+
+    /**
+     * Build a config from command-line arguments: --config=file first, then --key=value overrides.
+     * Non-option arguments are returned in positional (may be null).
+     */
+    public static ChatConfig fromArgs(String[] args, List<String> positional) throws IOException {
+        ChatConfig config = new ChatConfig();
+        for (String arg : args) {
+            if (arg.startsWith("--config=")) {
+                config.load(new File(arg.substring("--config=".length())));
+            }
+        }
+        for (String arg : args) {
+            if (arg.startsWith("--config=")) {
+                continue;
+            }
+            if (arg.startsWith("--")) {
+                int eq = arg.indexOf('=');
+                if (eq == -1) {
+                    throw new IllegalArgumentException("Expected --key=value: " + arg);
+                }
+                config.set(arg.substring(2, eq), arg.substring(eq + 1));
+            } else if (positional != null) {
+                positional.add(arg);
+            }
+        }
+        return config;
+    }
+
+    public void load(File file) throws IOException {
+        Properties props = new Properties();
+        try (Reader in = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            props.load(in);
+        }
+        // Sorted so errors come out in a stable order
+        Map<String, String> sorted = new TreeMap<>();
+        for (String key : props.stringPropertyNames()) {
+            sorted.put(key, props.getProperty(key).trim());
+        }
+        for (Map.Entry<String, String> e : sorted.entrySet()) {
+            set(e.getKey(), e.getValue());
+        }
+    }
+
+    public void set(String key, String value) {
+        switch (key) {
+            case "server.port": port = parseInt(key, value); break;
+            case "keystore.path": keystorePath = value; break;
+            case "keystore.password": keystorePassword = value; break;
+            case "keystore.reload.millis": keystoreReloadMillis = parseLong(key, value); break;
+            case "metrics.log.millis": metricsLogMillis = parseLong(key, value); break;
+            case "tls.handshake.timeout.millis": handshakeTimeoutMillis = parseLong(key, value); break;
+
+            case "socket.backlog": acceptBacklog = parseInt(key, value); break;
+            case "socket.reuse.address": reuseAddress = parseBoolean(key, value); break;
+            case "socket.tcp.nodelay": tcpNoDelay = parseBoolean(key, value); break;
+            case "socket.send.buffer": sendBufferBytes = parseIntBytes(key, value); break;
+            case "socket.receive.buffer": receiveBufferBytes = parseIntBytes(key, value); break;
+            case "frame.max.bytes": maxFrameBytes = parseIntBytes(key, value); break;
+            case "tls.profile": tlsProfile = parseEnum(TlsProfile.class, key, value); break;
+
+            case "threads.housekeeping": housekeepingThreads = parseInt(key, value); break;
+            case "threads.writers": writerThreads = parseInt(key, value); break;
+            case "outbound.write.timeout.millis": writeTimeoutMillis = parseLong(key, value); break;
+            case "outbound.max.room.frames": maxRoomFramesPerSession = parseInt(key, value); break;
+            case "outbound.max.bytes": maxOutboundBytesPerSession = parseBytes(key, value); break;
+            case "timer.tick.millis": timerTickMillis = parseLong(key, value); break;
+            case "timer.wheel.size": timerWheelSize = parseInt(key, value); break;
+
+            case "heartbeat.ping.millis": pingIntervalMillis = parseLong(key, value); break;
+            case "heartbeat.idle.millis": idleTimeoutMillis = parseLong(key, value); break;
+            case "presence.window.millis": presenceWindowMillis = parseLong(key, value); break;
+            case "presence.max.room.size": presenceMaxRoomSize = parseInt(key, value); break;
+            case "dedup.capacity": dedupCapacity = parseInt(key, value); break;
+            case "dedup.ttl.millis": dedupTtlMillis = parseLong(key, value); break;
+
+            case "offline.spill.file": offlineSpillFile = value; break;
+            case "offline.user.memory.bytes": offlineUserMemoryBytes = parseBytes(key, value); break;
+            case "offline.global.memory.bytes": offlineGlobalMemoryBytes = parseBytes(key, value); break;
+            case "offline.disk.max.bytes": offlineMaxDiskBytes = parseBytes(key, value); break;
+            case "offline.sender.max.bytes": offlineSenderMaxBytes = parseBytes(key, value); break;
+
+            case "search.enabled": searchEnabled = parseBoolean(key, value); break;
+            case "search.room.max.messages": searchRoomMaxMessages = parseInt(key, value); break;
+            case "search.room.max.bytes": searchRoomMaxBytes = parseBytes(key, value); break;
+            case "search.page.size": searchPageSize = parseInt(key, value); break;
+            case "search.index.queue": searchIndexQueue = parseInt(key, value); break;
+
+            case "transfer.chunk.bytes": transferChunkBytes = parseIntBytes(key, value); break;
+            case "transfer.window.chunks": transferWindowChunks = parseInt(key, value); break;
+            case "transfer.max.per.session": transferMaxPerSession = parseInt(key, value); break;
+
+            case "admission.max.sessions": admissionMaxSessions = parseInt(key, value); break;
+            case "admission.max.handshakes": admissionMaxHandshakes = parseInt(key, value); break;
+            case "admission.max.heap.percent": admissionMaxHeapPercent = parseInt(key, value); break;
+            case "admission.max.outbound.frames": admissionMaxOutboundFrames = parseLong(key, value); break;
+            case "admission.retry.after.millis": admissionRetryAfterMillis = parseLong(key, value); break;
+            case "admission.sample.millis": admissionSampleMillis = parseLong(key, value); break;
+            case "admission.notice.queue": admissionNoticeQueue = parseInt(key, value); break;
+
+            case "ratelimit.enabled": rateLimitEnabled = parseBoolean(key, value); break;
+            case "ratelimit.action": rateLimitAction = parseEnum(RateLimitPolicy.Action.class, key, value); break;
+            case "ratelimit.session.messages": sessionMessagesPerSecond = parseDouble(key, value); break;
+            case "ratelimit.session.bytes": sessionBytesPerSecond = parseBytes(key, value); break;
+            case "ratelimit.text.messages": textMessagesPerSecond = parseDouble(key, value); break;
+            case "ratelimit.private.messages": privateMessagesPerSecond = parseDouble(key, value); break;
+
+            case "log.file": logFile = value.isEmpty() ? null : value; break;
+            case "log.max.bytes": logMaxBytes = parseBytes(key, value); break;
+            case "log.max.files": logMaxFiles = parseInt(key, value); break;
+            case "log.level": logLevel = parseEnum(EventLog.Level.class, key, value); break;
+            case "capture.file": captureFile = value.isEmpty() ? null : value; break;
+
+            default:
+                throw new IllegalArgumentException("Unknown config key: " + key);
+        }
+    }
+
+    /**
+     * Check every value. Throws IllegalArgumentException listing all problems at once.
+     */
+    public ChatConfig validate() {
+        List<String> errors = new ArrayList<>();
+        check(errors, port >= 0 && port <= 65535, "server.port must be 0-65535");
+        check(errors, keystoreReloadMillis >= 0, "keystore.reload.millis must be >= 0");
+        check(errors, metricsLogMillis >= 0, "metrics.log.millis must be >= 0");
+        check(errors, handshakeTimeoutMillis > 0 && handshakeTimeoutMillis <= Integer.MAX_VALUE,
+                "tls.handshake.timeout.millis must be > 0");
+        check(errors, acceptBacklog > 0, "socket.backlog must be > 0");
+        check(errors, sendBufferBytes >= 0, "socket.send.buffer must be >= 0");
+        check(errors, receiveBufferBytes >= 0, "socket.receive.buffer must be >= 0");
+        check(errors, maxFrameBytes >= 1024 && maxFrameBytes <= MessageDeserializer.MAX_BODY_LENGTH,
+                "frame.max.bytes must be 1024-" + MessageDeserializer.MAX_BODY_LENGTH);
+        check(errors, housekeepingThreads > 0, "threads.housekeeping must be > 0");
+        check(errors, writerThreads > 0, "threads.writers must be > 0");
+        check(errors, writeTimeoutMillis > 0, "outbound.write.timeout.millis must be > 0");
+        check(errors, maxRoomFramesPerSession > 0, "outbound.max.room.frames must be > 0");
+        check(errors, maxOutboundBytesPerSession >= maxFrameBytes, "outbound.max.bytes must be >= frame.max.bytes");
+        check(errors, timerTickMillis > 0, "timer.tick.millis must be > 0");
+        check(errors, timerWheelSize > 0, "timer.wheel.size must be > 0");
+        check(errors, pingIntervalMillis > 0, "heartbeat.ping.millis must be > 0");
+        check(errors, idleTimeoutMillis > pingIntervalMillis, "heartbeat.idle.millis must be > heartbeat.ping.millis");
+        check(errors, presenceWindowMillis >= 0, "presence.window.millis must be >= 0");
+        check(errors, presenceMaxRoomSize >= 0, "presence.max.room.size must be >= 0");
+        check(errors, dedupCapacity > 0, "dedup.capacity must be > 0");
+        check(errors, dedupTtlMillis > 0, "dedup.ttl.millis must be > 0");
+        check(errors, offlineUserMemoryBytes >= 0 && offlineGlobalMemoryBytes >= 0 && offlineMaxDiskBytes >= 0
+                        && offlineSenderMaxBytes >= 0,
+                "offline.* sizes must be >= 0");
+        check(errors, searchRoomMaxMessages > 0, "search.room.max.messages must be > 0");
+        check(errors, searchRoomMaxBytes > 0, "search.room.max.bytes must be > 0");
+        check(errors, searchPageSize > 0 && searchPageSize <= 1000, "search.page.size must be 1-1000");
+        check(errors, searchIndexQueue > 0, "search.index.queue must be > 0");
+        // Base64 grows a chunk by 4/3, plus room for the other message fields
+        check(errors, transferChunkBytes >= 1024 && transferChunkBytes / 3 * 4 + 1024 <= maxFrameBytes,
+                "transfer.chunk.bytes must be >= 1024 and fit in frame.max.bytes once Base64 encoded");
+        check(errors, transferWindowChunks > 0, "transfer.window.chunks must be > 0");
+        check(errors, transferMaxPerSession > 0, "transfer.max.per.session must be > 0");
+        check(errors, admissionMaxSessions >= 0 && admissionMaxHandshakes >= 0 && admissionMaxOutboundFrames >= 0,
+                "admission.max.* limits must be >= 0");
+        check(errors, admissionMaxHeapPercent >= 0 && admissionMaxHeapPercent <= 100,
+                "admission.max.heap.percent must be 0-100");
+        check(errors, admissionRetryAfterMillis > 0, "admission.retry.after.millis must be > 0");
+        check(errors, admissionSampleMillis > 0, "admission.sample.millis must be > 0");
+        check(errors, admissionNoticeQueue >= 0, "admission.notice.queue must be >= 0");
+        check(errors, sessionMessagesPerSecond >= 0 && sessionBytesPerSecond >= 0
+                && textMessagesPerSecond >= 0 && privateMessagesPerSecond >= 0, "ratelimit.* rates must be >= 0");
+        check(errors, logMaxBytes > 0, "log.max.bytes must be > 0");
+        check(errors, logMaxFiles > 0, "log.max.files must be > 0");
+
+        if (!errors.isEmpty()) {
+            throw new IllegalArgumentException("Invalid configuration:\n  " + String.join("\n  ", errors));
+        }
+        return this;
+    }
+
+    // Options for client and accepted server sockets
+    public void applyTo(Socket socket) throws SocketException {
+        socket.setTcpNoDelay(tcpNoDelay);
+        if (sendBufferBytes > 0) {
+            socket.setSendBufferSize(sendBufferBytes);
+        }
+        if (receiveBufferBytes > 0) {
+            socket.setReceiveBufferSize(receiveBufferBytes);
+        }
+    }
+
+    public AdmissionController buildAdmissionController() {
+        return new AdmissionController(admissionMaxSessions, admissionMaxHandshakes, admissionMaxHeapPercent,
+                admissionMaxOutboundFrames, admissionRetryAfterMillis);
+    }
+
+    public RateLimitPolicy buildRateLimitPolicy() {
+        if (!rateLimitEnabled) {
+            return RateLimitPolicy.unlimited();
+        }
+        long byteBurst = Math.max(2 * sessionBytesPerSecond, maxFrameBytes + 4L);
+        RateLimitPolicy policy = RateLimitPolicy.defaults().setAction(rateLimitAction);
+        policy.setSessionLimit(new RateLimitPolicy.Limit(sessionMessagesPerSecond, burst(sessionMessagesPerSecond),
+                sessionBytesPerSecond, byteBurst));
+        RateLimitPolicy.Limit text = policy.getTypeLimit(MessageType.TEXT_MESSAGE);
+        policy.setTypeLimit(MessageType.TEXT_MESSAGE, new RateLimitPolicy.Limit(textMessagesPerSecond,
+                burst(textMessagesPerSecond), text.bytesPerSecond, text.byteBurst));
+        RateLimitPolicy.Limit pm = policy.getTypeLimit(MessageType.PRIVATE_MESSAGE);
+        policy.setTypeLimit(MessageType.PRIVATE_MESSAGE, new RateLimitPolicy.Limit(privateMessagesPerSecond,
+                burst(privateMessagesPerSecond), pm.bytesPerSecond, pm.byteBurst));
+        return policy;
+    }
+
+    private static long burst(double rate) {
+        return Math.max(1, (long) Math.ceil(rate * 2));
+    }
+
+    // === Getters ===
+
+    public int getPort() { return port; }
+    public String getKeystorePath() { return keystorePath; }
+    public String getKeystorePassword() { return keystorePassword; }
+    public long getKeystoreReloadMillis() { return keystoreReloadMillis; }
+    public long getMetricsLogMillis() { return metricsLogMillis; }
+    public long getHandshakeTimeoutMillis() { return handshakeTimeoutMillis; }
+    public int getAcceptBacklog() { return acceptBacklog; }
+    public boolean isReuseAddress() { return reuseAddress; }
+    public boolean isTcpNoDelay() { return tcpNoDelay; }
+    public int getSendBufferBytes() { return sendBufferBytes; }
+    public int getReceiveBufferBytes() { return receiveBufferBytes; }
+    public int getMaxFrameBytes() { return maxFrameBytes; }
+    public TlsProfile getTlsProfile() { return tlsProfile; }
+    public int getHousekeepingThreads() { return housekeepingThreads; }
+    public int getWriterThreads() { return writerThreads; }
+    public long getWriteTimeoutMillis() { return writeTimeoutMillis; }
+    public int getMaxRoomFramesPerSession() { return maxRoomFramesPerSession; }
+    public long getMaxOutboundBytesPerSession() { return maxOutboundBytesPerSession; }
+    public long getTimerTickMillis() { return timerTickMillis; }
+    public int getTimerWheelSize() { return timerWheelSize; }
+    public long getPingIntervalMillis() { return pingIntervalMillis; }
+    public long getIdleTimeoutMillis() { return idleTimeoutMillis; }
+    public long getPresenceWindowMillis() { return presenceWindowMillis; }
+    public int getPresenceMaxRoomSize() { return presenceMaxRoomSize; }
+    public int getDedupCapacity() { return dedupCapacity; }
+    public long getDedupTtlMillis() { return dedupTtlMillis; }
+    public String getOfflineSpillFile() { return offlineSpillFile; }
+    public long getOfflineUserMemoryBytes() { return offlineUserMemoryBytes; }
+    public long getOfflineGlobalMemoryBytes() { return offlineGlobalMemoryBytes; }
+    public long getOfflineMaxDiskBytes() { return offlineMaxDiskBytes; }
+    public long getOfflineSenderMaxBytes() { return offlineSenderMaxBytes; }
+    public boolean isSearchEnabled() { return searchEnabled; }
+    public int getSearchRoomMaxMessages() { return searchRoomMaxMessages; }
+    public long getSearchRoomMaxBytes() { return searchRoomMaxBytes; }
+    public int getSearchPageSize() { return searchPageSize; }
+    public int getSearchIndexQueue() { return searchIndexQueue; }
+    public int getTransferChunkBytes() { return transferChunkBytes; }
+    public int getTransferWindowChunks() { return transferWindowChunks; }
+    public int getTransferMaxPerSession() { return transferMaxPerSession; }
+    public long getAdmissionSampleMillis() { return admissionSampleMillis; }
+    public int getAdmissionNoticeQueue() { return admissionNoticeQueue; }
+    public String getLogFile() { return logFile; }
+    public long getLogMaxBytes() { return logMaxBytes; }
+    public int getLogMaxFiles() { return logMaxFiles; }
+    public EventLog.Level getLogLevel() { return logLevel; }
+    public String getCaptureFile() { return captureFile; }
+
+    // === Parsing ===
+
+    private static void check(List<String> errors, boolean ok, String message) {
+        if (!ok) errors.add(message);
+    }
+
+    private static int parseInt(String key, String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw invalid(key, value, "an integer");
+        }
+    }
+
+    private static long parseLong(String key, String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw invalid(key, value, "an integer");
+        }
+    }
+
+    private static double parseDouble(String key, String value) {
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw invalid(key, value, "a number");
+        }
+    }
+
+    private static boolean parseBoolean(String key, String value) {
+        if (value.equalsIgnoreCase("true")) return true;
+        if (value.equalsIgnoreCase("false")) return false;
+        throw invalid(key, value, "true or false");
+    }
+
+    // 4096, 64k, 16m, 1g
+    private static long parseBytes(String key, String value) {
+        String v = value.toLowerCase();
+        long unit = 1;
+        if (v.endsWith("k")) unit = 1024;
+        else if (v.endsWith("m")) unit = 1024 * 1024;
+        else if (v.endsWith("g")) unit = 1024L * 1024 * 1024;
+        if (unit > 1) v = v.substring(0, v.length() - 1);
+        try {
+            long n = Long.parseLong(v.trim());
+            if (n > Long.MAX_VALUE / unit) {
+                throw invalid(key, value, "a size that fits in 64 bits");
+            }
+            return n * unit;
+        } catch (NumberFormatException e) {
+            throw invalid(key, value, "a size like 4096, 64k, 16m or 1g");
+        }
+    }
+
+    private static int parseIntBytes(String key, String value) {
+        long n = parseBytes(key, value);
+        if (n > Integer.MAX_VALUE) {
+            throw invalid(key, value, "a size below 2g");
+        }
+        return (int) n;
+    }
+
+    private static <E extends Enum<E>> E parseEnum(Class<E> type, String key, String value) {
+        try {
+            return Enum.valueOf(type, value.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw invalid(key, value, "one of " + Arrays.toString(type.getEnumConstants()));
+        }
+    }
+
+    private static IllegalArgumentException invalid(String key, String value, String expected) {
+        return new IllegalArgumentException("Invalid value for " + key + ": '" + value + "' (expected " + expected + ")");
+    }
+}
@@ -7,6 +7,7 @@ public class ChatMessage {
     private String content;
     private long timestamp;
     private int version = 1;
+    private long messageId;     // assigned by the client, 0 = none
 
     public ChatMessage(MessageType type, String sender, String recipient,
                        String roomId, String content, long timestamp) {
@@ -28,5 +29,9 @@ public class ChatMessage {
     public void setVersion(int version) {
         this.version = version;
     }
+    public long getMessageId() { return messageId; }
+    public void setMessageId(long messageId) {
+        this.messageId = messageId;
+    }
 
 }
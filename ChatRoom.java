@@ -1,3 +1,4 @@
+import java.util.LinkedHashSet;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArraySet;
 
@@ -6,8 +7,19 @@ public class ChatRoom {
     private final String name;
     private final Set<ClientSession> participants = new CopyOnWriteArraySet<>();
 
-    public ChatRoom(String name) {
+    // Presence events waiting for the next digest (guarded by this)
+    private final Set<String> pendingJoins = new LinkedHashSet<>();
+    private final Set<String> pendingLeaves = new LinkedHashSet<>();
+    private boolean digestScheduled = false;
+    // Bigger rooms get no presence notices at all; 0 = none for any room
+    private final int presenceMaxRoomSize;
+
+    // null = search disabled for this room
+    private volatile RoomSearchIndex searchIndex;
+
+    public ChatRoom(String name, int presenceMaxRoomSize) {
         this.name = name;
+        this.presenceMaxRoomSize = presenceMaxRoomSize;
     }
 
     public String getName() {
@@ -19,11 +31,66 @@ public class ChatRoom {
         session.setCurrentRoom(name);
     }
 
-    public void leave(ClientSession session) {
-        participants.remove(session);
+    public boolean leave(ClientSession session) {
+        return participants.remove(session);
     }
 
     public Set<ClientSession> getParticipants() {
         return participants;
     }
+
+    public RoomSearchIndex getSearchIndex() {
+        return searchIndex;
+    }
+
+    public void setSearchIndex(RoomSearchIndex searchIndex) {
+        this.searchIndex = searchIndex;
+    }
+
+    /**
+     * Record a join for the next presence digest.
+     * Returns true if this is the first pending event, i.e. the caller must schedule the digest.
+     */
+    public synchronized boolean recordJoin(String username) {
+        if (!presenceWanted()) return false;
+        // A leave followed by a join inside one window cancels out
+        if (!pendingLeaves.remove(username)) {
+            pendingJoins.add(username);
+        }
+        return scheduleDigest();
+    }
+
+    public synchronized boolean recordLeave(String username) {
+        if (!presenceWanted()) return false;
+        if (!pendingJoins.remove(username)) {
+            pendingLeaves.add(username);
+        }
+        return scheduleDigest();
+    }
+
+    private boolean presenceWanted() {
+        return presenceMaxRoomSize > 0 && participants.size() <= presenceMaxRoomSize;
+    }
+
+    private boolean scheduleDigest() {
+        if (digestScheduled) return false;
+        digestScheduled = true;
+        return true;
+    }
+
+    /**
+     * Take the pending events as one digest: "joined=alice,bob;left=carol".
+     * Returns null when everything cancelled out.
+     */
+    public synchronized String drainPresence() {
+        digestScheduled = false;
+        if (pendingJoins.isEmpty() && pendingLeaves.isEmpty()) {
+            return null;
+        }
+        String digest = "joined=" + String.join(",", pendingJoins)
+                + ";left=" + String.join(",", pendingLeaves);
+        pendingJoins.clear();
+        pendingLeaves.clear();
+        return digest;
+    }
 }
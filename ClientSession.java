@@ -1,17 +1,54 @@
 import javax.net.ssl.SSLSocket;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ClientSession {
 
+    private static final AtomicInteger NEXT_CONNECTION_ID = new AtomicInteger();
+
+    private final int connectionId = NEXT_CONNECTION_ID.incrementAndGet();
     private String username;        // null before LOGIN
     private final SSLSocket socket;
-    private final OutputStream out;
+    private final OutboundQueue outbound;
     private String currentRoom;     // last joined room
+    private final RateLimiter rateLimiter;  // null = not limited
+
+    // Heartbeat state, written by the reader thread and read by the timer wheel
+    private volatile long lastReadNanos = System.nanoTime();
+    private volatile long lastPingNanos = lastReadNanos;
+    private volatile HashedWheelTimer.Timeout idleTimeout;
+
+    // Chunked transfers this client is sending, by the client's transfer ID
+    private final Map<Long, TransferRelay> transfers = new ConcurrentHashMap<>();
+
+    // Default room backlog per session before room frames are dropped
+    private static final int MAX_ROOM_FRAMES = 10_000;
+    // Default bytes queued per session before it is disconnected
+    private static final long MAX_QUEUED_BYTES = 16L * 1024 * 1024;
 
     public ClientSession(SSLSocket socket, OutputStream out) {
+        this(socket, out, null, Runnable::run, MAX_ROOM_FRAMES, MAX_QUEUED_BYTES);
+    }
+
+    /**
+     * @param writer         runs the outbound writes; Runnable::run writes on the caller's thread
+     * @param maxRoomFrames  room frames queued beyond this are dropped
+     * @param maxQueuedBytes the session is closed when its queued frames pass this
+     */
+    public ClientSession(SSLSocket socket, OutputStream out, RateLimiter rateLimiter, Executor writer,
+                         int maxRoomFrames, long maxQueuedBytes) {
         this.socket = socket;
-        this.out = out;
+        this.rateLimiter = rateLimiter;
+        this.outbound = new OutboundQueue(out, writer, this::closeSocket, maxRoomFrames, maxQueuedBytes);
+    }
+
+    public int getConnectionId() {
+        return connectionId;
     }
 
     public String getUsername() {
@@ -34,10 +71,89 @@ public class ClientSession {
         this.currentRoom = currentRoom;
     }
 
-    // Send a ChatMessage to this client
-    public synchronized void send(ChatMessage msg) throws IOException {
-        byte[] data = MessageSerializer.serialize(msg);
-        out.write(data);
-        out.flush();
+    public void markRead() {
+        lastReadNanos = System.nanoTime();
+    }
+
+    public long getLastReadNanos() {
+        return lastReadNanos;
+    }
+
+    public long getLastPingNanos() {
+        return lastPingNanos;
+    }
+
+    public void setLastPingNanos(long lastPingNanos) {
+        this.lastPingNanos = lastPingNanos;
+    }
+
+    public HashedWheelTimer.Timeout getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    public void setIdleTimeout(HashedWheelTimer.Timeout idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    // Check an inbound frame against this session's limits (always allowed when not limited)
+    public boolean allowInbound(MessageType type, int frameLength) {
+        return rateLimiter == null || rateLimiter.tryAcquire(type, frameLength);
+    }
+
+    // Queue a ChatMessage for this client, scheduled by its MessageType
+    public void send(ChatMessage msg) throws IOException {
+        if (outbound.isClosed()) {
+            throw new IOException("Session closed");
+        }
+        sendFrame(msg.getType(), MessageSerializer.serialize(msg));
+    }
+
+    // Queue several messages; the writer flushes them together
+    public void sendBatch(List<ChatMessage> messages) throws IOException {
+        for (ChatMessage msg : messages) {
+            send(msg);
+        }
+    }
+
+    // Queue an already serialized frame (lets a broadcast serialize once for every recipient).
+    // Returns false if the session is closed or the frame was dropped.
+    public boolean sendFrame(MessageType type, byte[] frame) {
+        return outbound.enqueue(OutboundPriority.of(type), frame);
+    }
+
+    // Same, with a callback once the frame is written out or discarded
+    public boolean sendFrame(MessageType type, byte[] frame, Runnable onDone) {
+        return outbound.enqueue(OutboundPriority.of(type), frame, onDone);
+    }
+
+    public Map<Long, TransferRelay> getTransfers() {
+        return transfers;
+    }
+
+    public int getQueuedFrames() {
+        return outbound.getQueuedFrames();
+    }
+
+    public long getDroppedFrames() {
+        return outbound.getDroppedFrames();
+    }
+
+    public long getWriteBlockedMillis() {
+        return outbound.getWriteBlockedMillis();
+    }
+
+    // Stop writing; pending frames are discarded
+    public void close() {
+        outbound.close();
+        closeSocket();
+    }
+
+    // Abortive: SSLSocket.close() waits for a writer blocked on this socket unless SO_LINGER
+    // is set, and the frames are being discarded anyway
+    private void closeSocket() {
+        try {
+            socket.setSoLinger(true, 0);
+            socket.close();
+        } catch (IOException ignored) {}
     }
 }
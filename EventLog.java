@@ -0,0 +1,310 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous structured event log.
+ *
+ * Producers claim a slot in a preallocated ring with one CAS and never block or take a lock:
+ * if the ring is full the entry is dropped and counted. A single background thread formats
+ * the entries and writes them to stdout or to a size-rotated file.
+ *
+ * Values are stored as Objects and only turned into text on the background thread, so
+ * calls like info("client.connected", "addr", socket.getInetAddress()) allocate nothing
+ * on the caller's side.
+ */
+public final class EventLog {
+
+    public enum Level { DEBUG, INFO, WARN, ERROR }
+
+    private static final class Entry {
+        long timeMillis;
+        Level level;
+        String event;
+        String key1;
+        Object value1;
+        String key2;
+        Object value2;
+    }
+
+    private static final EventLog DEFAULT = new EventLog(16_384);
+
+    private final Entry[] entries;
+    private final int mask;
+    // Per-slot sequence (bounded MPSC ring): slot is free for position p when seq == p,
+    // and holds the entry for p when seq == p + 1
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    private long head;   // consumer only
+
+    private volatile Level minLevel = Level.INFO;
+    private final int[] sampling = new int[Level.values().length];
+    private final AtomicLong[] sampleCounters = new AtomicLong[Level.values().length];
+    private final AtomicLong dropped = new AtomicLong();
+    private long reportedDrops;   // consumer only
+
+    // Output, switched by the consumer thread
+    private volatile File requestedFile;
+    private volatile long switchAt;     // first entry sequence that goes to requestedFile
+    private volatile long maxFileBytes = 10L * 1024 * 1024;
+    private volatile int maxFiles = 5;
+    private Writer writer = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+    private File currentFile;
+    private long currentBytes;
+
+    private EventLog(int capacity) {
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+        this.entries = new Entry[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            entries[i] = new Entry();
+            sequences.set(i, i);
+        }
+        this.mask = size - 1;
+        for (int i = 0; i < sampling.length; i++) {
+            sampling[i] = 1;
+            sampleCounters[i] = new AtomicLong();
+        }
+
+        Thread drainer = new Thread(this::drainLoop, "event-log");
+        drainer.setDaemon(true);
+        drainer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flush));
+    }
+
+    public static EventLog get() {
+        return DEFAULT;
+    }
+
+    // === Configuration ===
+
+    public void setLevel(Level level) {
+        this.minLevel = level;
+    }
+
+    // Keep only one entry out of every n for this level (1 = keep all)
+    public void setSampling(Level level, int oneInN) {
+        sampling[level.ordinal()] = Math.max(1, oneInN);
+    }
+
+    // Write to this file instead of stdout, rotating to file.1 .. file.(maxFiles-1)
+    public void setOutput(File file, long maxFileBytes, int maxFiles) {
+        this.maxFileBytes = maxFileBytes;
+        this.maxFiles = Math.max(1, maxFiles);
+        // Entries already claimed still go to the old output, everything after to the new one
+        this.switchAt = tail.get();
+        this.requestedFile = file;
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    // === Producers ===
+
+    public static void debug(String event, String key1, Object value1) {
+        DEFAULT.log(Level.DEBUG, event, key1, value1, null, null);
+    }
+
+    public static void debug(String event, String key1, Object value1, String key2, Object value2) {
+        DEFAULT.log(Level.DEBUG, event, key1, value1, key2, value2);
+    }
+
+    public static void info(String event, String key1, Object value1) {
+        DEFAULT.log(Level.INFO, event, key1, value1, null, null);
+    }
+
+    public static void info(String event, String key1, Object value1, String key2, Object value2) {
+        DEFAULT.log(Level.INFO, event, key1, value1, key2, value2);
+    }
+
+    public static void warn(String event, String key1, Object value1) {
+        DEFAULT.log(Level.WARN, event, key1, value1, null, null);
+    }
+
+    public static void warn(String event, String key1, Object value1, String key2, Object value2) {
+        DEFAULT.log(Level.WARN, event, key1, value1, key2, value2);
+    }
+
+    public static void error(String event, String key1, Object value1) {
+        DEFAULT.log(Level.ERROR, event, key1, value1, null, null);
+    }
+
+    public static void error(String event, String key1, Object value1, String key2, Object value2) {
+        DEFAULT.log(Level.ERROR, event, key1, value1, key2, value2);
+    }
+
+    /**
+     * Record one entry. Returns false if it was filtered, sampled out or dropped.
+     */
+    public boolean log(Level level, String event, String key1, Object value1, String key2, Object value2) {
+        if (level.ordinal() < minLevel.ordinal()) {
+            return false;
+        }
+        int n = sampling[level.ordinal()];
+        if (n > 1 && sampleCounters[level.ordinal()].getAndIncrement() % n != 0) {
+            return false;
+        }
+
+        long pos = tail.get();
+        while (true) {
+            int index = (int) (pos & mask);
+            long diff = sequences.get(index) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    Entry e = entries[index];
+                    e.timeMillis = System.currentTimeMillis();
+                    e.level = level;
+                    e.event = event;
+                    e.key1 = key1;
+                    e.value1 = value1;
+                    e.key2 = key2;
+                    e.value2 = value2;
+                    sequences.set(index, pos + 1);   // publish
+                    return true;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                dropped.incrementAndGet();           // full: never block the caller
+                return false;
+            } else {
+                pos = tail.get();
+            }
+        }
+    }
+
+    // === Consumer ===
+
+    private void drainLoop() {
+        int idle = 0;
+        while (true) {
+            try {
+                if (drainOnce() > 0) {
+                    idle = 0;
+                    continue;
+                }
+                // Back off gently while idle
+                LockSupport.parkNanos(idle < 100 ? 100_000 : 5_000_000);
+                idle++;
+            } catch (IOException e) {
+                System.err.println("EventLog write failed: " + e.getMessage());
+                LockSupport.parkNanos(1_000_000_000L);
+            }
+        }
+    }
+
+    // The lock is only shared with the shutdown hook, never with producers
+    private synchronized int drainOnce() throws IOException {
+        switchOutputIfRequested();
+        int count = drainAvailable();
+        if (count == 0) {
+            reportDrops();
+            writer.flush();
+        }
+        return count;
+    }
+
+    private int drainAvailable() throws IOException {
+        int count = 0;
+        StringBuilder sb = new StringBuilder(128);
+        while (count < 1024) {
+            int index = (int) (head & mask);
+            if (sequences.get(index) != head + 1) {
+                break;
+            }
+            switchOutputIfRequested();
+            Entry e = entries[index];
+            sb.setLength(0);
+            format(sb, e);
+            e.value1 = null;
+            e.value2 = null;
+            sequences.set(index, head + mask + 1);   // slot free for the next lap
+            head++;
+            count++;
+            write(sb);
+        }
+        return count;
+    }
+
+    private static void format(StringBuilder sb, Entry e) {
+        sb.append(Instant.ofEpochMilli(e.timeMillis)).append(' ')
+                .append(e.level).append(' ')
+                .append(e.event);
+        if (e.key1 != null) {
+            sb.append(' ').append(e.key1).append('=').append(e.value1);
+        }
+        if (e.key2 != null) {
+            sb.append(' ').append(e.key2).append('=').append(e.value2);
+        }
+        sb.append('\n');
+    }
+
+    private void reportDrops() throws IOException {
+        long d = dropped.get();
+        if (d != reportedDrops) {
+            StringBuilder sb = new StringBuilder();
+            sb.append(Instant.now()).append(" WARN eventlog.dropped count=").append(d - reportedDrops).append('\n');
+            reportedDrops = d;
+            write(sb);
+        }
+    }
+
+    private void write(CharSequence line) throws IOException {
+        writer.append(line);
+        if (currentFile != null) {
+            currentBytes += line.length();
+            if (currentBytes >= maxFileBytes) {
+                rotate();
+            }
+        }
+    }
+
+    private void switchOutputIfRequested() throws IOException {
+        File requested = requestedFile;
+        if (requested != null && !requested.equals(currentFile) && head >= switchAt) {
+            writer.flush();
+            if (currentFile != null) {
+                writer.close();
+            }
+            currentFile = requested;
+            openCurrentFile();
+        }
+    }
+
+    private void openCurrentFile() throws IOException {
+        currentBytes = currentFile.length();
+        writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(currentFile, true), StandardCharsets.UTF_8), 64 * 1024);
+    }
+
+    // server.log -> server.log.1 -> server.log.2 ..., the oldest is deleted
+    private void rotate() throws IOException {
+        writer.close();
+        String base = currentFile.getPath();
+        new File(base + "." + (maxFiles - 1)).delete();
+        for (int i = maxFiles - 2; i >= 1; i--) {
+            new File(base + "." + i).renameTo(new File(base + "." + (i + 1)));
+        }
+        if (maxFiles > 1) {
+            currentFile.renameTo(new File(base + ".1"));
+        } else {
+            currentFile.delete();
+        }
+        openCurrentFile();
+    }
+
+    /**
+     * Write out everything logged so far on the calling thread, and flush the output.
+     * Used at exit, and by anyone who needs the file to be complete now.
+     */
+    public void flush() {
+        try {
+            while (drainOnce() > 0) {
+                // keep draining
+            }
+        } catch (IOException ignored) {}
+    }
+}
@@ -0,0 +1,238 @@
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hashed timing wheel: one background thread and a ring of buckets.
+ * Adding and cancelling a timeout are O(1), so one timer can track a very
+ * large number of sessions without a scheduled task per connection.
+ *
+ * Precision is one tick: a timeout fires up to one tick late, never early.
+ * Tasks run on the wheel thread and must stay short (hand off blocking work); a task
+ * that throws is reported to the EventLog and the wheel carries on.
+ * A stopped timer cannot be restarted and refuses new timeouts.
+ */
+public class HashedWheelTimer {
+
+    public interface Task {
+        void run(Timeout timeout);
+    }
+
+    private static final int ST_INIT = 0;
+    private static final int ST_CANCELLED = 1;
+    private static final int ST_EXPIRED = 2;
+
+    public final class Timeout {
+        private final Task task;
+        private final long deadline;        // nanos since the timer started
+        private long remainingRounds;       // full turns of the wheel left
+        private final AtomicInteger state = new AtomicInteger(ST_INIT);
+
+        // Doubly linked list inside a bucket, only touched by the wheel thread
+        private Timeout prev;
+        private Timeout next;
+        private Bucket bucket;
+
+        private Timeout(Task task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Cancel this timeout. The entry is unlinked from its bucket on the next tick.
+         * Returns false if it already fired or was already cancelled.
+         */
+        public boolean cancel() {
+            if (!state.compareAndSet(ST_INIT, ST_CANCELLED)) {
+                return false;
+            }
+            cancelled.add(this);
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return state.get() == ST_CANCELLED;
+        }
+
+        private void expire() {
+            if (!state.compareAndSet(ST_INIT, ST_EXPIRED)) {
+                return;
+            }
+            try {
+                task.run(this);
+            } catch (Throwable t) {
+                EventLog.error("timer.task_failed", "error", t);
+            }
+        }
+    }
+
+    private static final class Bucket {
+        private Timeout head;
+        private Timeout tail;
+
+        void add(Timeout t) {
+            t.bucket = this;
+            if (head == null) {
+                head = tail = t;
+            } else {
+                tail.next = t;
+                t.prev = tail;
+                tail = t;
+            }
+        }
+
+        Timeout remove(Timeout t) {
+            Timeout next = t.next;
+            if (t.prev != null) t.prev.next = next;
+            if (t.next != null) t.next.prev = t.prev;
+            if (t == head) head = next;
+            if (t == tail) tail = t.prev;
+            t.prev = null;
+            t.next = null;
+            t.bucket = null;
+            return next;
+        }
+
+        void expire(long deadline) {
+            Timeout t = head;
+            while (t != null) {
+                if (t.remainingRounds <= 0 && t.deadline <= deadline) {
+                    Timeout next = remove(t);
+                    t.expire();
+                    t = next;
+                } else if (t.isCancelled()) {
+                    t = remove(t);
+                } else {
+                    t.remainingRounds--;
+                    t = t.next;
+                }
+            }
+        }
+    }
+
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+
+    // New and cancelled timeouts are handed to the wheel thread through lock-free queues
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+
+    private final Thread worker;
+    private volatile boolean running = false;
+    private volatile boolean stopped = false;
+    private volatile long startTime;
+    private long tick;
+
+    public HashedWheelTimer(long tickDuration, TimeUnit unit, int ticksPerWheel) {
+        if (tickDuration <= 0 || ticksPerWheel <= 0) {
+            throw new IllegalArgumentException("Invalid timer wheel: tick=" + tickDuration + " size=" + ticksPerWheel);
+        }
+        this.tickNanos = unit.toNanos(tickDuration);
+
+        // Round the wheel up to a power of two so the bucket index is a mask
+        int size = 1;
+        while (size < ticksPerWheel) {
+            size <<= 1;
+        }
+        this.wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new Bucket();
+        }
+        this.mask = size - 1;
+
+        this.worker = new Thread(this::runWheel, "timer-wheel");
+        this.worker.setDaemon(true);
+    }
+
+    public synchronized void start() {
+        if (stopped) {
+            throw new IllegalStateException("Timer stopped");
+        }
+        if (running) return;
+        startTime = System.nanoTime();
+        running = true;
+        worker.start();
+    }
+
+    // Timeouts not yet fired never run
+    public synchronized void stop() {
+        stopped = true;
+        running = false;
+        worker.interrupt();
+    }
+
+    public Timeout newTimeout(Task task, long delay, TimeUnit unit) {
+        if (stopped) {
+            throw new IllegalStateException("Timer stopped");
+        }
+        if (!running) {
+            start();
+        }
+        long deadline = System.nanoTime() + unit.toNanos(delay) - startTime;
+        Timeout timeout = new Timeout(task, deadline);
+        pending.add(timeout);
+        return timeout;
+    }
+
+    private void runWheel() {
+        while (running) {
+            long deadline = waitForNextTick();
+            if (deadline < 0) {
+                continue;
+            }
+            removeCancelled();
+            transferPending();
+            wheel[(int) (tick & mask)].expire(deadline);
+            tick++;
+        }
+    }
+
+    // Sleep until the end of the current tick, returns its deadline (relative to startTime)
+    private long waitForNextTick() {
+        long deadline = tickNanos * (tick + 1);
+        while (true) {
+            long now = System.nanoTime() - startTime;
+            long sleepMillis = (deadline - now + 999_999) / 1_000_000;
+            if (sleepMillis <= 0) {
+                return now;
+            }
+            try {
+                Thread.sleep(sleepMillis);
+            } catch (InterruptedException e) {
+                if (!running) {
+                    return -1;
+                }
+            }
+        }
+    }
+
+    private void removeCancelled() {
+        Timeout t;
+        while ((t = cancelled.poll()) != null) {
+            if (t.bucket != null) {
+                t.bucket.remove(t);
+            }
+        }
+    }
+
+    private void transferPending() {
+        // Bounded per tick so a burst of new timeouts cannot stall the wheel
+        for (int i = 0; i < 100_000; i++) {
+            Timeout t = pending.poll();
+            if (t == null) {
+                break;
+            }
+            if (t.isCancelled()) {
+                continue;
+            }
+            long calculated = t.deadline / tickNanos;
+            t.remainingRounds = (calculated - tick) / wheel.length;
+
+            // Never schedule into the past: overdue timeouts go into the current bucket
+            long ticks = Math.max(calculated, tick);
+            wheel[(int) (ticks & mask)].add(t);
+        }
+    }
+}
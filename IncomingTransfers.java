@@ -0,0 +1,99 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Receiving side of chunked transfers (see TransferRelay): decodes each chunk straight
+ * into the OutputStream the handler opened for it, so nothing is buffered here.
+ */
+public class IncomingTransfers {
+
+    public interface Handler {
+        // Where to write the transfer announced by start; null = ignore it
+        OutputStream open(ChatMessage start, String name, long size) throws IOException;
+
+        // After the stream is closed; complete is false if the transfer was aborted
+        default void finished(ChatMessage start, long bytes, boolean complete, String status) {}
+    }
+
+    private static final class Transfer {
+        final ChatMessage start;
+        final OutputStream out;
+        long bytes;
+
+        Transfer(ChatMessage start, OutputStream out) {
+            this.start = start;
+            this.out = out;
+        }
+    }
+
+    private final Handler handler;
+    private final Map<Long, Transfer> open = new ConcurrentHashMap<>();
+
+    public IncomingTransfers(Handler handler) {
+        this.handler = handler;
+    }
+
+    /**
+     * Handle a relayed TRANSFER_START, TRANSFER_CHUNK or TRANSFER_END.
+     * Returns false for any other message.
+     */
+    public boolean handle(ChatMessage msg) throws IOException {
+        long id = msg.getMessageId();
+        switch (msg.getType()) {
+            case TRANSFER_START: {
+                String name = field(msg.getContent(), "name");
+                String size = field(msg.getContent(), "size");
+                OutputStream out = handler.open(msg, name, size == null ? -1 : Long.parseLong(size));
+                if (out != null) {
+                    open.put(id, new Transfer(msg, out));
+                }
+                return true;
+            }
+            case TRANSFER_CHUNK: {
+                Transfer t = open.get(id);
+                if (t != null) {
+                    byte[] data = Base64.getDecoder().decode(msg.getContent());
+                    t.out.write(data);
+                    t.bytes += data.length;
+                }
+                return true;
+            }
+            case TRANSFER_END: {
+                Transfer t = open.remove(id);
+                if (t != null) {
+                    t.out.close();
+                    handler.finished(t.start, t.bytes, "done".equals(msg.getContent()), msg.getContent());
+                }
+                return true;
+            }
+            default:
+                return false;
+        }
+    }
+
+    // Close everything still open, e.g. when the connection is lost
+    public void abortAll() {
+        for (Transfer t : open.values()) {
+            try {
+                t.out.close();
+            } catch (IOException ignored) {}
+            handler.finished(t.start, t.bytes, false, "aborted: connection lost");
+        }
+        open.clear();
+    }
+
+    // "name=report.pdf;size=1234" -> field(..., "size") = "1234"
+    static String field(String content, String key) {
+        if (content == null) return null;
+        for (String part : content.split(";")) {
+            String[] kv = part.split("=", 2);
+            if (kv.length == 2 && kv[0].equals(key)) {
+                return kv[1];
+            }
+        }
+        return null;
+    }
+}
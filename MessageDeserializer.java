@@ -3,6 +3,9 @@ import java.nio.charset.StandardCharsets;
 
 public class MessageDeserializer {
 
+    // Largest body any peer may send; readers can be configured lower (frame.max.bytes)
+    public static final int MAX_BODY_LENGTH = 1_000_000;
+
     /**
      * Deserialize a ChatMessage from bytes produced by MessageSerializer.
      */
@@ -12,7 +15,7 @@ public class MessageDeserializer {
 
         // 1) Read body length from header
         int bodyLength = buffer.getInt();
-        if (bodyLength < 0 || bodyLength > 1_000_000) {
+        if (bodyLength < 0 || bodyLength > MAX_BODY_LENGTH) {
             throw new IllegalArgumentException("Invalid message length: " + bodyLength);
         }
 
@@ -26,6 +29,7 @@ public class MessageDeserializer {
         // 4) Extract fields from our simple JSON-like string
         MessageType type   = MessageType.valueOf(extractString(body, "type"));
         int version        = Integer.parseInt(extractNumber(body, "version"));
+        long messageId     = Long.parseLong(extractNumber(body, "messageId"));
         long timestamp     = Long.parseLong(extractNumber(body, "timestamp"));
         String sender      = extractString(body, "sender");
         String recipient   = extractString(body, "recipient");
@@ -35,6 +39,7 @@ public class MessageDeserializer {
         // 5) Build ChatMessage object
         ChatMessage msg = new ChatMessage(type, sender, recipient, roomId, content, timestamp);
         msg.setVersion(version);
+        msg.setMessageId(messageId);
 
         return msg;
     }
@@ -0,0 +1,122 @@
+/**
+ * Bounded, time-expiring set of recently seen message IDs for one sender.
+ *
+ * Memory is fixed at construction: a ring of (id, expiry) pairs in insertion order plus an
+ * open-addressing int table pointing into the ring. No boxing, no per-entry objects.
+ * When the ring is full the oldest ID is forgotten, even if it has not expired yet.
+ */
+public class MessageIdCache {
+
+    private final long ttlMillis;
+
+    // Ring in insertion order
+    private final long[] ids;
+    private final long[] expiresAt;
+    private int next;
+    private int size;
+
+    // Linear probing table: ring slot + 1, 0 = empty
+    private final int[] table;
+    private final int mask;
+
+    public MessageIdCache(int capacity, long ttlMillis) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        this.ttlMillis = ttlMillis;
+        this.ids = new long[capacity];
+        this.expiresAt = new long[capacity];
+
+        // Keep the load factor at or below 0.5
+        int tableSize = Integer.highestOneBit(capacity) << 2;
+        this.table = new int[tableSize];
+        this.mask = tableSize - 1;
+    }
+
+    /**
+     * Returns true if this ID was already seen and has not expired.
+     * Otherwise records it (now + ttl) and returns false.
+     */
+    public synchronized boolean checkAndAdd(long id, long nowMillis) {
+        int pos = find(id);
+        if (pos >= 0) {
+            int slot = table[pos] - 1;
+            if (expiresAt[slot] > nowMillis) {
+                return true;
+            }
+            expiresAt[slot] = nowMillis + ttlMillis;
+            return false;
+        }
+
+        if (size == ids.length) {
+            removeAt(find(ids[next]));   // forget the oldest
+        } else {
+            size++;
+        }
+        ids[next] = id;
+        expiresAt[next] = nowMillis + ttlMillis;
+        insert(id, next);
+        next = (next + 1) % ids.length;
+        return false;
+    }
+
+    /**
+     * Forget an ID, e.g. when the message it came with could not be delivered and
+     * the sender's retry must go through. Its ring slot just expires.
+     */
+    public synchronized void remove(long id) {
+        int pos = find(id);
+        if (pos >= 0) {
+            expiresAt[table[pos] - 1] = Long.MIN_VALUE;
+        }
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    private static int hash(long id) {
+        long h = id * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private int find(long id) {
+        int i = hash(id) & mask;
+        while (table[i] != 0) {
+            if (ids[table[i] - 1] == id) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void insert(long id, int slot) {
+        int i = hash(id) & mask;
+        while (table[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        table[i] = slot + 1;
+    }
+
+    // Backward-shift deletion keeps probe chains intact without tombstones
+    private void removeAt(int pos) {
+        int i = pos;
+        table[i] = 0;
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            if (table[j] == 0) {
+                return;
+            }
+            int home = hash(ids[table[j] - 1]) & mask;
+            boolean reachable = (i <= j) ? (i < home && home <= j) : (i < home || home <= j);
+            if (reachable) {
+                continue;
+            }
+            table[i] = table[j];
+            table[j] = 0;
+            i = j;
+        }
+    }
+}
@@ -13,6 +13,7 @@ public class MessageSerializer {
         String body = "{"
                 + "\"type\":\"" + msg.getType().name() + "\","
                 + "\"version\":" + msg.getVersion() + ","
+                + "\"messageId\":" + msg.getMessageId() + ","
                 + "\"timestamp\":" + msg.getTimestamp() + ","
                 + "\"sender\":\"" + safe(msg.getSender()) + "\","
                 + "\"recipient\":\"" + safe(msg.getRecipient()) + "\","
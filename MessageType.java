@@ -6,5 +6,19 @@ public enum MessageType {
     PRIVATE_MESSAGE,
     USER_LIST_REQUEST,
     USER_LIST_RESPONSE,
-    ERROR_RESPONSE
+    ERROR_RESPONSE,
+    PING,
+    PONG,
+    PRESENCE_UPDATE,
+    MESSAGE_ACK,
+    // roomId + content = query, messageId = "before" cursor (0 = newest)
+    SEARCH_REQUEST,
+    // One per hit (messageId = cursor of the hit), then a summary from "server"
+    // with messageId 0 and content "hits=N;next=<cursor, 0 = no more>"
+    SEARCH_RESPONSE,
+    // Chunked transfers, see TransferRelay
+    TRANSFER_START,
+    TRANSFER_CHUNK,
+    TRANSFER_END,
+    TRANSFER_CREDIT
 }
@@ -0,0 +1,317 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Private messages waiting for an offline recipient.
+ *
+ * Messages are kept as serialized frames: in memory while the recipient's mailbox and the
+ * global total stay under their caps, then appended to a spill file indexed by offset.
+ * Once a mailbox has spilled, later messages for it also go to disk to keep the order.
+ *
+ * The index lives in memory, so the spill file is only a memory overflow, not a
+ * persistent store: it is truncated at startup and whenever no spilled message is left.
+ * The disk cap counts live entries only. Space of delivered entries is reclaimed by
+ * compacting the file once it is mostly dead, or when an append would pass the cap.
+ *
+ * Each sender also has a cap on undelivered bytes across all recipients, so one sender
+ * writing to many made-up names cannot fill the store for everyone else. The bytes come
+ * back when the recipient logs in and drains them.
+ *
+ * The store also knows who is online, so "is the recipient there?" and "queue it" are
+ * one step: a message is either delivered live or queued, never queued just after the
+ * recipient's last drain. A login drains until nothing new arrived, then goes online.
+ */
+public class OfflineMessageStore {
+
+    // What became of a message for a user who may be offline
+    public enum Delivery {
+        LIVE,       // the recipient is online: the caller sends it
+        QUEUED,     // kept for the recipient's next login
+        REFUSED     // recipient offline and the store or the sender's share is full
+    }
+
+    private static final class Mailbox {
+        final ArrayDeque<byte[]> memory = new ArrayDeque<>();
+        long memoryBytes;
+        long[] diskOffsets = new long[0];
+        int[] diskLengths = new int[0];
+        int diskCount;
+        final Map<String, Long> senderBytes = new HashMap<>();     // undelivered bytes per sender
+
+        void addDiskEntry(long offset, int length) {
+            if (diskCount == diskOffsets.length) {
+                diskOffsets = Arrays.copyOf(diskOffsets, Math.max(8, diskCount * 2));
+                diskLengths = Arrays.copyOf(diskLengths, diskOffsets.length);
+            }
+            diskOffsets[diskCount] = offset;
+            diskLengths[diskCount++] = length;
+        }
+
+        long diskBytes() {
+            long total = 0;
+            for (int i = 0; i < diskCount; i++) {
+                total += diskLengths[i];
+            }
+            return total;
+        }
+
+        boolean isEmpty() {
+            return memory.isEmpty() && diskCount == 0;
+        }
+    }
+
+    private final long perUserMemoryBytes;
+    private final long globalMemoryBytes;
+    private final long maxSenderBytes;
+
+    // Compact when dead bytes outweigh live ones, but not for less than this
+    private static final long MIN_COMPACT_BYTES = 1024 * 1024;
+
+    private final long maxDiskBytes;
+    private final FileChannel spill;
+
+    // Everything below is guarded by this
+    private final Map<String, Mailbox> mailboxes = new HashMap<>();
+    private final Set<String> online = new HashSet<>();
+    private final Map<String, Long> senderBytes = new HashMap<>();
+    private long memoryBytes;
+    private long diskPosition;      // end of the spill file
+    private long liveDiskBytes;     // bytes of entries not delivered yet
+    private int diskEntries;
+    private int activeReaders;
+
+    public OfflineMessageStore(File spillFile, long perUserMemoryBytes, long globalMemoryBytes, long maxDiskBytes,
+                               long maxSenderBytes) throws IOException {
+        this.perUserMemoryBytes = perUserMemoryBytes;
+        this.globalMemoryBytes = globalMemoryBytes;
+        this.maxSenderBytes = maxSenderBytes;
+        this.maxDiskBytes = maxDiskBytes;
+        this.spill = FileChannel.open(spillFile.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /**
+     * Queue the message unless the recipient is online; in that case the caller sends it.
+     */
+    public synchronized Delivery storeIfOffline(String recipient, ChatMessage msg) throws IOException {
+        if (online.contains(recipient)) {
+            return Delivery.LIVE;
+        }
+        return store(recipient, msg) ? Delivery.QUEUED : Delivery.REFUSED;
+    }
+
+    /**
+     * Mark a user online once their backlog is out. Returns false if messages arrived
+     * since the last drain: drain again, then call this again.
+     */
+    public synchronized boolean finishDrain(String user) {
+        Mailbox box = mailboxes.get(user);
+        if (box != null && !box.isEmpty()) {
+            return false;
+        }
+        online.add(user);
+        return true;
+    }
+
+    // Unconditionally; for when the backlog could not be delivered
+    public synchronized void markOnline(String user) {
+        online.add(user);
+    }
+
+    // Messages for this user are queued again from now on
+    public synchronized void markOffline(String user) {
+        online.remove(user);
+    }
+
+    /**
+     * Queue a message for an offline user.
+     * Returns false if the message does not fit (disk cap or the sender's cap reached).
+     */
+    public synchronized boolean store(String recipient, ChatMessage msg) throws IOException {
+        byte[] frame = MessageSerializer.serialize(msg);
+        String sender = String.valueOf(msg.getSender());
+        if (senderBytes.getOrDefault(sender, 0L) + frame.length > maxSenderBytes) {
+            return false;
+        }
+        Mailbox box = mailboxes.computeIfAbsent(recipient, k -> new Mailbox());
+
+        if (box.diskCount == 0
+                && box.memoryBytes + frame.length <= perUserMemoryBytes
+                && memoryBytes + frame.length <= globalMemoryBytes) {
+            box.memory.add(frame);
+            box.memoryBytes += frame.length;
+            memoryBytes += frame.length;
+            countSender(box, sender, frame.length);
+            return true;
+        }
+
+        boolean full = liveDiskBytes + frame.length > maxDiskBytes;
+        if (!full && activeReaders == 0 && (diskPosition + frame.length > maxDiskBytes || mostlyDead())) {
+            compact();
+        }
+        if (full || diskPosition + frame.length > maxDiskBytes) {
+            if (box.isEmpty()) {
+                mailboxes.remove(recipient);
+            }
+            return false;
+        }
+
+        // Positional writes do not move the channel position, so readers can run concurrently
+        ByteBuffer buf = ByteBuffer.wrap(frame);
+        long pos = diskPosition;
+        while (buf.hasRemaining()) {
+            pos += spill.write(buf, pos);
+        }
+        box.addDiskEntry(diskPosition, frame.length);
+        diskPosition = pos;
+        liveDiskBytes += frame.length;
+        diskEntries++;
+        countSender(box, sender, frame.length);
+        return true;
+    }
+
+    private void countSender(Mailbox box, String sender, long bytes) {
+        box.senderBytes.merge(sender, bytes, Long::sum);
+        senderBytes.merge(sender, bytes, Long::sum);
+    }
+
+    // Undelivered bytes from this sender, to all recipients
+    public synchronized long pendingBytesFrom(String sender) {
+        return senderBytes.getOrDefault(sender, 0L);
+    }
+
+    private boolean mostlyDead() {
+        long dead = diskPosition - liveDiskBytes;
+        return dead >= MIN_COMPACT_BYTES && dead > liveDiskBytes;
+    }
+
+    /**
+     * Move every live entry down over the dead space, in file order, then cut the file.
+     * Only called with the lock held and no drain reading, so no offset is in use.
+     */
+    private void compact() throws IOException {
+        List<Mailbox> owners = new ArrayList<>();
+        List<long[]> entries = new ArrayList<>(diskEntries);   // {offset, owner, index in owner}
+        for (Mailbox box : mailboxes.values()) {
+            for (int i = 0; i < box.diskCount; i++) {
+                entries.add(new long[]{box.diskOffsets[i], owners.size(), i});
+            }
+            owners.add(box);
+        }
+        entries.sort((a, b) -> Long.compare(a[0], b[0]));
+
+        // Targets never pass sources, so moving in file order overwrites only dead bytes
+        long target = 0;
+        for (long[] entry : entries) {
+            Mailbox box = owners.get((int) entry[1]);
+            int i = (int) entry[2];
+            if (entry[0] != target) {
+                ByteBuffer frame = ByteBuffer.allocate(box.diskLengths[i]);
+                readFully(frame, entry[0]);
+                frame.flip();
+                long pos = target;
+                while (frame.hasRemaining()) {
+                    pos += spill.write(frame, pos);
+                }
+                box.diskOffsets[i] = target;
+            }
+            target += box.diskLengths[i];
+        }
+        spill.truncate(target);
+        diskPosition = target;
+    }
+
+    public synchronized int pendingCount(String user) {
+        Mailbox box = mailboxes.get(user);
+        return box == null ? 0 : box.memory.size() + box.diskCount;
+    }
+
+    /**
+     * Remove and return every message queued for this user, oldest first.
+     * Disk reads happen outside the lock so other users' messages keep flowing.
+     */
+    public List<ChatMessage> drain(String user) throws Exception {
+        Mailbox box;
+        synchronized (this) {
+            box = mailboxes.remove(user);
+            if (box == null) {
+                return Collections.emptyList();
+            }
+            memoryBytes -= box.memoryBytes;
+            liveDiskBytes -= box.diskBytes();
+            diskEntries -= box.diskCount;
+            for (Map.Entry<String, Long> e : box.senderBytes.entrySet()) {
+                long left = senderBytes.get(e.getKey()) - e.getValue();
+                if (left == 0) {
+                    senderBytes.remove(e.getKey());
+                } else {
+                    senderBytes.put(e.getKey(), left);
+                }
+            }
+            activeReaders++;
+        }
+
+        try {
+            List<ChatMessage> messages = new ArrayList<>(box.memory.size() + box.diskCount);
+            for (byte[] frame : box.memory) {
+                messages.add(MessageDeserializer.deserialize(frame));
+            }
+            for (int i = 0; i < box.diskCount; i++) {
+                messages.add(MessageDeserializer.deserialize(readFrame(box.diskOffsets[i])));
+            }
+            return messages;
+
+        } finally {
+            synchronized (this) {
+                activeReaders--;
+                // Reclaim the spill file once nothing in it is referenced any more
+                if (diskEntries == 0 && activeReaders == 0 && diskPosition > 0) {
+                    spill.truncate(0);
+                    diskPosition = 0;
+                } else if (activeReaders == 0 && mostlyDead()) {
+                    compact();
+                }
+            }
+        }
+    }
+
+    private byte[] readFrame(long offset) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(4);
+        readFully(header, offset);
+        int bodyLength = header.getInt(0);
+
+        ByteBuffer frame = ByteBuffer.allocate(4 + bodyLength);
+        readFully(frame, offset);
+        return frame.array();
+    }
+
+    private void readFully(ByteBuffer buf, long offset) throws IOException {
+        long pos = offset;
+        while (buf.hasRemaining()) {
+            int n = spill.read(buf, pos);
+            if (n < 0) {
+                throw new IOException("Spill file truncated at " + pos);
+            }
+            pos += n;
+        }
+    }
+
+    public void close() {
+        try {
+            spill.close();
+        } catch (IOException ignored) {}
+    }
+}
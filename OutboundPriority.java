@@ -0,0 +1,28 @@
+/**
+ * Outbound scheduling classes, most urgent first.
+ */
+public enum OutboundPriority {
+    CONTROL,    // login/error responses, heartbeats, acks
+    DIRECT,     // private messages, search results, transfers (bounded by their credit window)
+    BULK;       // room traffic
+
+    public static OutboundPriority of(MessageType type) {
+        switch (type) {
+            case LOGIN_RESPONSE:
+            case ERROR_RESPONSE:
+            case PING:
+            case PONG:
+            case MESSAGE_ACK:
+            case TRANSFER_CREDIT:
+                return CONTROL;
+            case PRIVATE_MESSAGE:
+            case SEARCH_RESPONSE:
+            case TRANSFER_START:
+            case TRANSFER_CHUNK:
+            case TRANSFER_END:
+                return DIRECT;
+            default:
+                return BULK;
+        }
+    }
+}
@@ -0,0 +1,259 @@
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-session outbound frames, written by at most one executor thread at a time.
+ *
+ * CONTROL frames go before DIRECT, which go before BULK. To keep room traffic from
+ * starving, at most FAIRNESS urgent frames are written in a row while BULK is waiting.
+ * Frames are written through a buffer and flushed once per batch, so a backlog
+ * becomes a few large TLS records instead of one record per message.
+ *
+ * Room frames over their own bound are dropped. All classes together are bounded in
+ * bytes: a client that falls that far behind is not going to catch up, so the queue is
+ * closed and onFailure disconnects it, instead of the server holding its backlog.
+ *
+ * A write to a client that stopped reading blocks its writer thread. getWriteBlockedMillis
+ * tells how long the current batch has been stuck, so the owner can close the socket,
+ * which fails the write and frees the thread for other sessions.
+ *
+ * A frame can carry an onDone callback, run once it has been flushed to the socket or
+ * discarded (queue closed, frame dropped). Chunked transfers use it for flow control.
+ */
+public class OutboundQueue {
+
+    private static final int FAIRNESS = 8;
+    private static final int MAX_BATCH_BYTES = 64 * 1024;
+
+    private final OutputStream out;
+    private final Executor executor;
+    private final Runnable onFailure;
+    private final int maxBulkFrames;
+    private final long maxQueuedBytes;
+
+    private static final class TrackedFrame {
+        final byte[] frame;
+        final Runnable onDone;
+
+        TrackedFrame(byte[] frame, Runnable onDone) {
+            this.frame = frame;
+            this.onDone = onDone;
+        }
+    }
+
+    // Elements are byte[] or TrackedFrame
+    @SuppressWarnings("unchecked")
+    private final Queue<Object>[] queues = (Queue<Object>[]) new Queue<?>[OutboundPriority.values().length];
+    private final AtomicInteger queuedFrames = new AtomicInteger();
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private final AtomicInteger bulkFrames = new AtomicInteger();
+    private final AtomicLong droppedFrames = new AtomicLong();
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    private volatile boolean closed = false;
+    private volatile boolean writing = false;
+    private volatile long writeStartNanos;
+
+    // Only touched by the thread currently draining
+    private int urgentStreak;
+
+    /**
+     * @param onFailure      called if a write fails or the byte bound is passed (typically closes the socket)
+     * @param maxBulkFrames  room frames beyond this are dropped for this session
+     * @param maxQueuedBytes frames of all classes beyond this close the queue
+     */
+    public OutboundQueue(OutputStream out, Executor executor, Runnable onFailure, int maxBulkFrames,
+                         long maxQueuedBytes) {
+        this.out = new BufferedOutputStream(out, MAX_BATCH_BYTES);
+        this.executor = executor;
+        this.onFailure = onFailure;
+        this.maxBulkFrames = maxBulkFrames;
+        this.maxQueuedBytes = maxQueuedBytes;
+        for (int i = 0; i < queues.length; i++) {
+            queues[i] = new ConcurrentLinkedQueue<>();
+        }
+    }
+
+    /**
+     * Queue a serialized frame. Never blocks.
+     * Returns false if the queue is closed or the frame was dropped (BULK over its bound),
+     * or if it would pass the byte bound, which also closes the queue.
+     */
+    public boolean enqueue(OutboundPriority priority, byte[] frame) {
+        return add(priority, frame);
+    }
+
+    /**
+     * Queue a frame and run onDone once it is written or discarded. onDone runs exactly
+     * once, on the writer thread or the caller's, and must not block.
+     */
+    public boolean enqueue(OutboundPriority priority, byte[] frame, Runnable onDone) {
+        TrackedFrame tracked = new TrackedFrame(frame, onDone);
+        if (!add(priority, tracked)) {
+            onDone.run();
+            return false;
+        }
+        // Lost a race with close(), which may already have emptied the queue
+        if (closed && queues[priority.ordinal()].remove(tracked)) {
+            onDone.run();
+        }
+        return true;
+    }
+
+    private boolean add(OutboundPriority priority, Object item) {
+        if (closed) {
+            return false;
+        }
+        if (priority == OutboundPriority.BULK && bulkFrames.incrementAndGet() > maxBulkFrames) {
+            bulkFrames.decrementAndGet();
+            droppedFrames.incrementAndGet();
+            return false;
+        }
+        if (queuedBytes.addAndGet(length(item)) > maxQueuedBytes) {
+            droppedFrames.incrementAndGet();
+            close();
+            onFailure.run();
+            return false;
+        }
+        queues[priority.ordinal()].add(item);
+        queuedFrames.incrementAndGet();
+        schedule();
+        return true;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public int getQueuedFrames() {
+        return queuedFrames.get();
+    }
+
+    public long getQueuedBytes() {
+        return queuedBytes.get();
+    }
+
+    public long getDroppedFrames() {
+        return droppedFrames.get();
+    }
+
+    // How long the batch being written has been waiting for the socket, 0 = not writing
+    public long getWriteBlockedMillis() {
+        long start = writeStartNanos;
+        return writing ? TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) : 0;
+    }
+
+    public void close() {
+        closed = true;
+        for (Queue<Object> q : queues) {
+            Object item;
+            while ((item = q.poll()) != null) {
+                if (item instanceof TrackedFrame) {
+                    ((TrackedFrame) item).onDone.run();
+                }
+            }
+        }
+        queuedFrames.set(0);
+        queuedBytes.set(0);
+        bulkFrames.set(0);
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            executor.execute(this::drain);
+        }
+    }
+
+    private void drain() {
+        List<Runnable> written = null;     // callbacks of the current batch, run after the flush
+        try {
+            while (!closed) {
+                int bytes = 0;
+                Object item;
+                writeStartNanos = System.nanoTime();
+                writing = true;
+                while (bytes < MAX_BATCH_BYTES && (item = poll()) != null) {
+                    byte[] frame;
+                    if (item instanceof TrackedFrame) {
+                        TrackedFrame tracked = (TrackedFrame) item;
+                        if (written == null) {
+                            written = new ArrayList<>();
+                        }
+                        written.add(tracked.onDone);
+                        frame = tracked.frame;
+                    } else {
+                        frame = (byte[]) item;
+                    }
+                    out.write(frame);
+                    bytes += frame.length;
+                }
+                if (bytes == 0) {
+                    break;
+                }
+                out.flush();
+                writing = false;
+                written = runAll(written);
+            }
+        } catch (IOException e) {
+            close();
+            onFailure.run();
+        } finally {
+            writing = false;
+            runAll(written);
+            scheduled.set(false);
+        }
+
+        // A frame may have been queued after the last poll but before scheduled was reset
+        if (!closed && queuedFrames.get() > 0) {
+            schedule();
+        }
+    }
+
+    private static int length(Object item) {
+        return item instanceof TrackedFrame ? ((TrackedFrame) item).frame.length : ((byte[]) item).length;
+    }
+
+    private static List<Runnable> runAll(List<Runnable> callbacks) {
+        if (callbacks != null) {
+            for (Runnable r : callbacks) {
+                r.run();
+            }
+        }
+        return null;
+    }
+
+    private Object poll() {
+        Queue<Object> bulk = queues[OutboundPriority.BULK.ordinal()];
+        boolean bulkWaiting = !bulk.isEmpty();
+
+        if (!bulkWaiting || urgentStreak < FAIRNESS) {
+            for (int i = 0; i < OutboundPriority.BULK.ordinal(); i++) {
+                Object frame = queues[i].poll();
+                if (frame != null) {
+                    urgentStreak = bulkWaiting ? urgentStreak + 1 : 0;
+                    queuedFrames.decrementAndGet();
+                    queuedBytes.addAndGet(-length(frame));
+                    return frame;
+                }
+            }
+        }
+
+        Object frame = bulk.poll();
+        if (frame != null) {
+            urgentStreak = 0;
+            bulkFrames.decrementAndGet();
+            queuedFrames.decrementAndGet();
+            queuedBytes.addAndGet(-length(frame));
+        }
+        return frame;
+    }
+}
@@ -0,0 +1,120 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Client side of one chunked transfer (see TransferRelay for the protocol).
+ *
+ * run() reads the data one chunk at a time and sends a chunk only when the server has
+ * granted credit for it, so a large file never sits in memory and a slow recipient
+ * simply slows run() down. The reader thread of the client feeds TRANSFER_CREDIT and
+ * server TRANSFER_END messages into credit() and abort().
+ */
+public class OutgoingTransfer {
+
+    // Sends one message on the client's connection
+    public interface Sender {
+        void send(ChatMessage msg) throws IOException;
+    }
+
+    private static final AtomicLong NEXT_ID = new AtomicLong(System.currentTimeMillis() << 16);
+
+    // Give up when the server grants nothing for this long
+    private static final long CREDIT_TIMEOUT_MILLIS = 60_000;
+
+    private final long id = NEXT_ID.incrementAndGet();
+    private final Sender sender;
+    private final String username;
+    private final String recipient;
+    private final String roomId;
+    private final int chunkBytes;
+
+    private final Semaphore credits = new Semaphore(0);
+    private volatile String abortReason;
+
+    /**
+     * @param recipient  target user, or null for a room transfer
+     * @param roomId     target room, or null for a private transfer
+     * @param chunkBytes raw bytes per chunk (ChatConfig transfer.chunk.bytes)
+     */
+    public OutgoingTransfer(Sender sender, String username, String recipient, String roomId, int chunkBytes) {
+        this.sender = sender;
+        this.username = username;
+        this.recipient = recipient;
+        this.roomId = roomId;
+        this.chunkBytes = chunkBytes;
+    }
+
+    // The transfer ID used in messageId of every message of this transfer
+    public long getId() {
+        return id;
+    }
+
+    public void credit(int chunks) {
+        credits.release(chunks);
+    }
+
+    public void abort(String reason) {
+        abortReason = reason;
+        credits.release(); // wake run() up
+    }
+
+    /**
+     * Send the whole stream. Blocks until the last chunk is sent; returns the number of
+     * bytes sent. Throws IOException if the server rejects or aborts the transfer.
+     */
+    public long run(String name, long size, InputStream data) throws IOException {
+        ChatMessage start = new ChatMessage(MessageType.TRANSFER_START, username, recipient, roomId,
+                "name=" + name.replaceAll("[;=]", "_") + ";size=" + size, System.currentTimeMillis());
+        start.setMessageId(id);
+        sender.send(start);
+
+        byte[] buffer = new byte[chunkBytes];
+        Base64.Encoder base64 = Base64.getEncoder();
+        long total = 0;
+        try {
+            int n;
+            while ((n = data.readNBytes(buffer, 0, chunkBytes)) > 0) {
+                awaitCredit();
+                byte[] chunk = n == chunkBytes ? buffer : Arrays.copyOf(buffer, n);
+                sender.send(message(MessageType.TRANSFER_CHUNK, base64.encodeToString(chunk)));
+                total += n;
+            }
+        } catch (IOException e) {
+            if (abortReason == null) {
+                // Our side failed (e.g. reading the file): tell the recipients if we still can
+                try {
+                    sender.send(message(MessageType.TRANSFER_END, "aborted: " + e.getMessage()));
+                } catch (IOException ignored) {}
+            }
+            throw e;
+        }
+        sender.send(message(MessageType.TRANSFER_END, "done"));
+        return total;
+    }
+
+    private void awaitCredit() throws IOException {
+        try {
+            boolean granted = credits.tryAcquire(CREDIT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            if (abortReason != null) {
+                throw new IOException("Transfer " + abortReason);
+            }
+            if (!granted) {
+                throw new IOException("Transfer stalled: no credit from the server");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Transfer interrupted");
+        }
+    }
+
+    private ChatMessage message(MessageType type, String content) {
+        ChatMessage msg = new ChatMessage(type, username, null, roomId, content, System.currentTimeMillis());
+        msg.setMessageId(id);
+        return msg;
+    }
+}
@@ -1,7 +1,86 @@
+import java.nio.charset.StandardCharsets;
+
 public class ProtocolParser {
 
- 
+    private static final byte[] TYPE_KEY = "\"type\"".getBytes(StandardCharsets.US_ASCII);
+    private static final MessageType[] TYPES = MessageType.values();
+
     public ChatMessage parse(byte[] data) throws Exception {
         return MessageDeserializer.deserialize(data);
     }
+
+    /**
+     * Cheaply read the message type of a framed message without decoding the body.
+     * MessageSerializer writes "type" first, so this normally only looks at a few bytes.
+     *
+     * The key is located exactly like MessageDeserializer.extractString does it (first
+     * "type", then the next ':', then the next quote), so a frame peeks as the same type
+     * it parses as, whatever whitespace it contains. Returns null if the type cannot be
+     * found; such a frame would not parse either.
+     */
+    public MessageType peekType(byte[] data) {
+        int key = indexOf(data, TYPE_KEY, 4);
+        if (key == -1) {
+            return null;
+        }
+        int colon = indexOf(data, (byte) ':', key + TYPE_KEY.length);
+        if (colon == -1) {
+            return null;
+        }
+        int quote = indexOf(data, (byte) '"', colon + 1);
+        if (quote == -1) {
+            return null;
+        }
+        int start = quote + 1;
+
+        int end = start;
+        while (end < data.length && data[end] != '"') {
+            end++;
+        }
+        if (end == data.length) {
+            return null;
+        }
+
+        for (MessageType type : TYPES) {
+            if (matches(data, start, end, type.name())) {
+                return type;
+            }
+        }
+        return null;
+    }
+
+    private static int indexOf(byte[] data, byte[] key, int from) {
+        outer:
+        for (int i = from; i <= data.length - key.length; i++) {
+            for (int j = 0; j < key.length; j++) {
+                if (data[i + j] != key[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private static int indexOf(byte[] data, byte b, int from) {
+        for (int i = from; i < data.length; i++) {
+            if (data[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // enum names are ASCII, so comparing byte by byte with chars is enough
+    private static boolean matches(byte[] data, int start, int end, String name) {
+        if (end - start != name.length()) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (data[start + i] != name.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
 }
@@ -0,0 +1,92 @@
+import java.util.EnumMap;
+import java.util.Map;
+
+public class RateLimitPolicy {
+
+    // What the server does with a frame that is over the limit
+    public enum Action {
+        REJECT,     // answer with an ERROR_RESPONSE
+        DROP        // discard silently
+    }
+
+    /**
+     * One limit, counted both in messages and in bytes per second.
+     * A rate <= 0 means "no limit" for that dimension.
+     */
+    public static class Limit {
+        final double messagesPerSecond;
+        final long messageBurst;
+        final double bytesPerSecond;
+        final long byteBurst;
+
+        public Limit(double messagesPerSecond, long messageBurst, double bytesPerSecond, long byteBurst) {
+            this.messagesPerSecond = messagesPerSecond;
+            this.messageBurst = messageBurst;
+            this.bytesPerSecond = bytesPerSecond;
+            this.byteBurst = byteBurst;
+        }
+
+        TokenBucket newMessageBucket() {
+            return messagesPerSecond > 0 ? new TokenBucket(messagesPerSecond, messageBurst) : null;
+        }
+
+        TokenBucket newByteBucket() {
+            return bytesPerSecond > 0 ? new TokenBucket(bytesPerSecond, byteBurst) : null;
+        }
+    }
+
+    private Limit sessionLimit;
+    private final Map<MessageType, Limit> typeLimits = new EnumMap<>(MessageType.class);
+    private Action action = Action.REJECT;
+
+    // A full maximum frame, header included
+    private static final long MAX_FRAME = MessageDeserializer.MAX_BODY_LENGTH + 4;
+
+    /**
+     * Defaults sized for interactive chat. The byte bursts are at least one maximum
+     * frame (1 MB) so a single large but legal message is never refused outright.
+     */
+    public static RateLimitPolicy defaults() {
+        RateLimitPolicy policy = new RateLimitPolicy();
+        policy.setSessionLimit(new Limit(50, 100, 256 * 1024, MAX_FRAME));
+        policy.setTypeLimit(MessageType.LOGIN_REQUEST, new Limit(1, 5, 0, 0));
+        policy.setTypeLimit(MessageType.JOIN_ROOM_REQUEST, new Limit(5, 10, 0, 0));
+        policy.setTypeLimit(MessageType.SEARCH_REQUEST, new Limit(2, 5, 0, 0));
+        policy.setTypeLimit(MessageType.TEXT_MESSAGE, new Limit(20, 40, 64 * 1024, MAX_FRAME));
+        policy.setTypeLimit(MessageType.PRIVATE_MESSAGE, new Limit(10, 20, 64 * 1024, MAX_FRAME));
+        return policy;
+    }
+
+    // No limit at all
+    public static RateLimitPolicy unlimited() {
+        return new RateLimitPolicy();
+    }
+
+    public Limit getSessionLimit() { return sessionLimit; }
+    public Limit getTypeLimit(MessageType type) { return typeLimits.get(type); }
+    public Action getAction() { return action; }
+
+    public RateLimitPolicy setSessionLimit(Limit limit) {
+        this.sessionLimit = limit;
+        return this;
+    }
+
+    public RateLimitPolicy setTypeLimit(MessageType type, Limit limit) {
+        if (limit == null) {
+            typeLimits.remove(type);
+        } else {
+            typeLimits.put(type, limit);
+        }
+        return this;
+    }
+
+    public RateLimitPolicy setAction(Action action) {
+        this.action = action;
+        return this;
+    }
+
+    // Each session gets its own buckets built from this policy
+    public RateLimiter newLimiter() {
+        return new RateLimiter(this);
+    }
+}
@@ -0,0 +1,49 @@
+public class RateLimiter {
+
+    private final TokenBucket sessionMessages;
+    private final TokenBucket sessionBytes;
+
+    // Indexed by MessageType.ordinal(), null = no limit for that type
+    private final TokenBucket[] typeMessages;
+    private final TokenBucket[] typeBytes;
+
+    RateLimiter(RateLimitPolicy policy) {
+        RateLimitPolicy.Limit session = policy.getSessionLimit();
+        this.sessionMessages = session != null ? session.newMessageBucket() : null;
+        this.sessionBytes = session != null ? session.newByteBucket() : null;
+
+        MessageType[] types = MessageType.values();
+        this.typeMessages = new TokenBucket[types.length];
+        this.typeBytes = new TokenBucket[types.length];
+        for (MessageType type : types) {
+            RateLimitPolicy.Limit limit = policy.getTypeLimit(type);
+            if (limit != null) {
+                typeMessages[type.ordinal()] = limit.newMessageBucket();
+                typeBytes[type.ordinal()] = limit.newByteBucket();
+            }
+        }
+    }
+
+    /**
+     * Check one inbound frame against the session and per-type limits.
+     * Lock-free; with a null type only the session limits apply (the server refuses
+     * frames whose type cannot be peeked before getting here).
+     *
+     * Buckets are checked one after the other, so a frame refused by a later bucket
+     * still costs tokens in the earlier ones. That errs on the side of the server.
+     */
+    public boolean tryAcquire(MessageType type, int frameLength) {
+        if (!take(sessionMessages, 1) || !take(sessionBytes, frameLength)) {
+            return false;
+        }
+        if (type == null) {
+            return true;
+        }
+        int i = type.ordinal();
+        return take(typeMessages[i], 1) && take(typeBytes[i], frameLength);
+    }
+
+    private static boolean take(TokenBucket bucket, long tokens) {
+        return bucket == null || bucket.tryAcquire(tokens);
+    }
+}
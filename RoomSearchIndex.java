@@ -0,0 +1,330 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * In-memory full-text index over the recent history of one room.
+ *
+ * Every indexed message gets a sequence number (1, 2, 3...). Each term maps to a posting
+ * list of the sequence numbers containing it, stored as varint-encoded gaps in a byte[]
+ * (usually one byte per entry instead of an 8-byte long plus a boxed object).
+ *
+ * Memory is bounded by a message count and an approximate byte budget; past either, the
+ * oldest messages are evicted. The message ring starts small and doubles up to the count
+ * bound, and its slots are charged to the byte budget, so a quiet room stays small.
+ * The oldest message is always at the head of its posting lists, so eviction only
+ * advances a start offset.
+ *
+ * Queries are AND over all terms, case-insensitive, newest matches first. Pages are
+ * chained with the "before" cursor returned in Result.next.
+ */
+public class RoomSearchIndex {
+
+    // Longer terms are cut (same for messages and queries, so they still match)
+    static final int MAX_TERM_LENGTH = 32;
+
+    // Rough per-object costs used for the byte budget
+    private static final int MESSAGE_OVERHEAD = 64;
+    private static final int TERM_OVERHEAD = 80;
+    private static final int SLOT_BYTES = 8;
+    private static final int INITIAL_SLOTS = 16;
+
+    public static final class Hit {
+        public final long seq;
+        public final String sender;
+        public final String content;
+        public final long timestamp;
+
+        Hit(long seq, String sender, String content, long timestamp) {
+            this.seq = seq;
+            this.sender = sender;
+            this.content = content;
+            this.timestamp = timestamp;
+        }
+    }
+
+    public static final class Result {
+        public final List<Hit> hits;
+        public final long next;     // cursor for the next (older) page, 0 = no more
+
+        Result(List<Hit> hits, long next) {
+            this.hits = hits;
+            this.next = next;
+        }
+    }
+
+    // Sorted doc sequence numbers: "first" is absolute, the bytes hold the gaps after it
+    private static final class PostingList {
+        byte[] data = new byte[8];
+        int start;
+        int end;
+        long first;
+        long last;
+        int count;
+
+        // Returns the number of bytes the array grew by
+        int add(long seq) {
+            if (count++ == 0) {
+                first = seq;
+                last = seq;
+                return 0;
+            }
+            int grown = 0;
+            if (end + 10 > data.length) {
+                if (start > 0) {
+                    compact();
+                }
+                if (end + 10 > data.length) {
+                    grown = data.length;
+                    data = Arrays.copyOf(data, data.length * 2);
+                }
+            }
+            long gap = seq - last;
+            while ((gap & ~0x7FL) != 0) {
+                data[end++] = (byte) ((gap & 0x7F) | 0x80);
+                gap >>>= 7;
+            }
+            data[end++] = (byte) gap;
+            last = seq;
+            return grown;
+        }
+
+        void removeFirst() {
+            if (--count == 0) {
+                start = 0;
+                end = 0;
+                return;
+            }
+            long gap = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[start++];
+                gap |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            first += gap;
+        }
+
+        private void compact() {
+            System.arraycopy(data, start, data, 0, end - start);
+            end -= start;
+            start = 0;
+        }
+
+        long[] decode() {
+            long[] out = new long[count];
+            long seq = first;
+            out[0] = seq;
+            int pos = start;
+            for (int i = 1; i < count; i++) {
+                long gap = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = data[pos++];
+                    gap |= (long) (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                seq += gap;
+                out[i] = seq;
+            }
+            return out;
+        }
+    }
+
+    private static final class Entry {
+        final String sender;
+        final String content;
+        final long timestamp;
+
+        Entry(String sender, String content, long timestamp) {
+            this.sender = sender;
+            this.content = content;
+            this.timestamp = timestamp;
+        }
+    }
+
+    private final int maxMessages;
+    private final long maxBytes;
+
+    // Ring of the indexed messages: seq s lives at s % entries.length
+    private Entry[] entries;
+    private final Map<String, PostingList> postings = new HashMap<>();
+    private long firstSeq = 1;
+    private long nextSeq = 1;
+    private long memoryBytes;
+
+    public RoomSearchIndex(int maxMessages, long maxBytes) {
+        if (maxMessages <= 0) {
+            throw new IllegalArgumentException("maxMessages must be > 0");
+        }
+        this.maxMessages = maxMessages;
+        this.maxBytes = maxBytes;
+        this.entries = new Entry[Math.min(maxMessages, INITIAL_SLOTS)];
+        this.memoryBytes = (long) SLOT_BYTES * entries.length;
+    }
+
+    public synchronized void add(String sender, String content, long timestamp) {
+        if (content == null || content.isEmpty()) {
+            return;
+        }
+        if (nextSeq - firstSeq == entries.length && !grow()) {
+            evictOldest();
+        }
+
+        long seq = nextSeq++;
+        entries[(int) (seq % entries.length)] = new Entry(sender, content, timestamp);
+        memoryBytes += MESSAGE_OVERHEAD + 2L * content.length() + (sender == null ? 0 : 2L * sender.length());
+
+        for (String term : tokenize(content)) {
+            PostingList list = postings.get(term);
+            if (list == null) {
+                list = new PostingList();
+                postings.put(term, list);
+                memoryBytes += TERM_OVERHEAD + 2L * term.length() + list.data.length;
+            }
+            memoryBytes += list.add(seq);
+        }
+
+        while (memoryBytes > maxBytes && nextSeq - firstSeq > 1) {
+            evictOldest();
+        }
+    }
+
+    // Double the ring, up to maxMessages and only if the budget has room for the new slots
+    private boolean grow() {
+        int length = (int) Math.min(maxMessages, 2L * entries.length);
+        long extra = (long) SLOT_BYTES * (length - entries.length);
+        if (extra == 0 || memoryBytes + extra > maxBytes) {
+            return false;
+        }
+        Entry[] grown = new Entry[length];
+        for (long seq = firstSeq; seq < nextSeq; seq++) {
+            grown[(int) (seq % length)] = entries[(int) (seq % entries.length)];
+        }
+        entries = grown;
+        memoryBytes += extra;
+        return true;
+    }
+
+    private void evictOldest() {
+        long seq = firstSeq++;
+        int slot = (int) (seq % entries.length);
+        Entry entry = entries[slot];
+        entries[slot] = null;
+        memoryBytes -= MESSAGE_OVERHEAD + 2L * entry.content.length()
+                + (entry.sender == null ? 0 : 2L * entry.sender.length());
+
+        for (String term : tokenize(entry.content)) {
+            PostingList list = postings.get(term);
+            list.removeFirst();
+            if (list.count == 0) {
+                postings.remove(term);
+                memoryBytes -= TERM_OVERHEAD + 2L * term.length() + list.data.length;
+            }
+        }
+    }
+
+    /**
+     * Newest messages containing every term of the query, older than "before"
+     * (0 = start from the newest), at most "limit" of them.
+     */
+    public synchronized Result search(String query, long before, int limit) {
+        Set<String> terms = tokenize(query);
+        if (terms.isEmpty() || limit <= 0) {
+            return new Result(List.of(), 0);
+        }
+
+        List<PostingList> lists = new ArrayList<>(terms.size());
+        for (String term : terms) {
+            PostingList list = postings.get(term);
+            if (list == null) {
+                return new Result(List.of(), 0);
+            }
+            lists.add(list);
+        }
+        // Rarest term first keeps the candidate set small
+        lists.sort(Comparator.comparingInt(l -> l.count));
+
+        long[] matches = lists.get(0).decode();
+        int matchCount = matches.length;
+        for (int i = 1; i < lists.size() && matchCount > 0; i++) {
+            matchCount = intersect(matches, matchCount, lists.get(i).decode());
+        }
+
+        // Matches are ascending: skip to the cursor and walk backwards
+        int end = matchCount;
+        if (before > 0) {
+            end = Arrays.binarySearch(matches, 0, matchCount, before);
+            if (end < 0) {
+                end = -end - 1;
+            }
+        }
+        int begin = Math.max(0, end - limit);
+
+        List<Hit> hits = new ArrayList<>(end - begin);
+        for (int i = end - 1; i >= begin; i--) {
+            long seq = matches[i];
+            Entry entry = entries[(int) (seq % entries.length)];
+            hits.add(new Hit(seq, entry.sender, entry.content, entry.timestamp));
+        }
+        return new Result(hits, begin > 0 ? matches[begin] : 0);
+    }
+
+    // Keeps in a[] the values also present in b[] (both ascending); returns the new length
+    private static int intersect(long[] a, int aLength, long[] b) {
+        int i = 0, j = 0, n = 0;
+        while (i < aLength && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                a[n++] = a[i++];
+                j++;
+            }
+        }
+        return n;
+    }
+
+    public synchronized int size() {
+        return (int) (nextSeq - firstSeq);
+    }
+
+    public synchronized int termCount() {
+        return postings.size();
+    }
+
+    public synchronized long getMemoryBytes() {
+        return memoryBytes;
+    }
+
+    // Distinct lower-cased runs of letters and digits
+    static Set<String> tokenize(String text) {
+        Set<String> terms = new LinkedHashSet<>();
+        if (text == null) {
+            return terms;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i <= text.length(); ) {
+            int cp = i < text.length() ? text.codePointAt(i) : ' ';
+            if (Character.isLetterOrDigit(cp)) {
+                if (sb.length() < MAX_TERM_LENGTH) {
+                    sb.appendCodePoint(cp);
+                }
+            } else if (sb.length() > 0) {
+                terms.add(sb.toString().toLowerCase(Locale.ROOT));
+                sb.setLength(0);
+            }
+            i += Character.charCount(cp);
+        }
+        return terms;
+    }
+}
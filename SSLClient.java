@@ -1,5 +1,11 @@
 import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.security.SecureRandom;
 import java.security.cert.X509Certificate;
 import javax.net.ssl.*;
@@ -10,17 +16,49 @@ public class SSLClient {
     private String host;
     private int port;
     private boolean trustAllCerts;
+    private ChatConfig config;
 
     private String username;
     private String currentRoom;
 
+    // Chunked transfers we are sending, and received ones saved under downloads/
+    private final Map<Long, OutgoingTransfer> outgoing = new ConcurrentHashMap<>();
+    private final IncomingTransfers incoming = new IncomingTransfers(new IncomingTransfers.Handler() {
+        @Override
+        public OutputStream open(ChatMessage start, String name, long size) throws IOException {
+            File dir = new File("downloads");
+            dir.mkdirs();
+            // Never trust a remote file name with a path
+            String safeName = (start.getSender() + "-" + name).replaceAll("[^A-Za-z0-9._-]", "_");
+            System.out.println("[FILE] Receiving " + name + " (" + size + " bytes) from " + start.getSender()
+                    + " -> downloads/" + safeName);
+            return new BufferedOutputStream(new FileOutputStream(new File(dir, safeName)));
+        }
+
+        @Override
+        public void finished(ChatMessage start, long bytes, boolean complete, String status) {
+            System.out.println("[FILE] " + (complete ? "Received " : "Incomplete, " + status + ": ")
+                    + bytes + " bytes from " + start.getSender());
+        }
+    });
+
+    // Last search, for /more
+    private volatile String lastQuery;
+    private volatile long nextCursor;
+
     public SSLClient(String host, int port, boolean trustAllCerts) {
+        this(host, port, trustAllCerts, new ChatConfig());
+    }
+
+    public SSLClient(String host, int port, boolean trustAllCerts, ChatConfig config) {
         this.host = host;
         this.port = port;
         this.trustAllCerts = trustAllCerts;
+        this.config = config;
     }
 
-    private SSLContext createSSLContext() throws Exception {
+    // Shared with AsyncChatClient
+    static SSLContext createSSLContext(boolean trustAllCerts) throws Exception {
         if (!trustAllCerts) {
             // Production-like: use default trust store
             return SSLContext.getDefault();
@@ -40,9 +78,8 @@ public class SSLClient {
     }
 
     public void connect() throws Exception {
-        SSLContext context = createSSLContext();
-        SSLSocketFactory factory = context.getSocketFactory();
-        socket = (SSLSocket) factory.createSocket(host, port);
+        SSLContext context = createSSLContext(trustAllCerts);
+        socket = openSocket(context.getSocketFactory(), host, port, config);
 
         System.out.println("Connecting to " + host + ":" + port + " ...");
         socket.startHandshake();
@@ -52,12 +89,29 @@ public class SSLClient {
         new Thread(this::readLoop).start();
     }
 
+    // Plain TCP socket tuned from the config, then TLS with the configured profile on top (shared with AsyncChatClient)
+    static SSLSocket openSocket(SSLSocketFactory factory, String host, int port, ChatConfig config)
+            throws IOException {
+        Socket raw = new Socket();
+        config.applyTo(raw);
+        raw.connect(new InetSocketAddress(host, port), 10_000);
+        try {
+            // Passing host/port lets JSSE find a cached session for this server and resume it
+            SSLSocket socket = (SSLSocket) factory.createSocket(raw, host, port, true);
+            config.getTlsProfile().apply(socket);
+            return socket;
+        } catch (IOException e) {
+            raw.close();
+            throw e;
+        }
+    }
+
     private void readLoop() {
         try {
             InputStream in = socket.getInputStream();
 
             while (!socket.isClosed()) {
-                ChatMessage msg = readMessage(in);
+                ChatMessage msg = readMessage(in, config.getMaxFrameBytes());
                 if (msg == null) {
                     break;
                 }
@@ -71,7 +125,8 @@ public class SSLClient {
         }
     }
 
-    private ChatMessage readMessage(InputStream in) throws Exception {
+    // Read one framed message, null if the server closed the connection
+    static ChatMessage readMessage(InputStream in, int maxBodyLength) throws Exception {
         byte[] header = in.readNBytes(4);
         if (header.length == 0) {
             return null; // server closed
@@ -81,20 +136,16 @@ public class SSLClient {
         }
 
         int bodyLength = ByteBuffer.wrap(header).getInt();
-        if (bodyLength < 0 || bodyLength > 1_000_000) {
+        if (bodyLength < 0 || bodyLength > maxBodyLength) {
             throw new IOException("Invalid body length from server: " + bodyLength);
         }
 
-        byte[] body = in.readNBytes(bodyLength);
-        if (body.length < bodyLength) {
+        byte[] full = new byte[4 + bodyLength];
+        System.arraycopy(header, 0, full, 0, 4);
+        if (in.readNBytes(full, 4, bodyLength) < bodyLength) {
             throw new IOException("Incomplete body from server");
         }
 
-        byte[] full = ByteBuffer.allocate(4 + bodyLength)
-                .putInt(bodyLength)
-                .put(body)
-                .array();
-
         return MessageDeserializer.deserialize(full);
     }
 
@@ -116,12 +167,98 @@ public class SSLClient {
             case ERROR_RESPONSE:
                 System.out.println("[ERROR] " + msg.getContent());
                 break;
+            case PRESENCE_UPDATE:
+                System.out.println("[" + msg.getRoomId() + "] " + formatPresence(msg.getContent()));
+                break;
+            case SEARCH_RESPONSE:
+                if (msg.getMessageId() != 0) {
+                    System.out.println("[search " + msg.getRoomId() + "] " + msg.getSender() + ": " + msg.getContent());
+                } else {
+                    // Summary: "hits=N;next=cursor"
+                    String hits = "0";
+                    long next = 0;
+                    for (String part : msg.getContent().split(";")) {
+                        String[] kv = part.split("=", 2);
+                        if (kv.length < 2) continue;
+                        if (kv[0].equals("hits")) hits = kv[1];
+                        if (kv[0].equals("next")) next = Long.parseLong(kv[1]);
+                    }
+                    nextCursor = next;
+                    System.out.println("[search] " + hits + " result(s)" + (next != 0 ? ", /more for older ones" : ""));
+                }
+                break;
+            case TRANSFER_CREDIT: {
+                OutgoingTransfer t = outgoing.get(msg.getMessageId());
+                if (t != null) t.credit(Integer.parseInt(msg.getContent()));
+                break;
+            }
+            case TRANSFER_END:
+                if ("server".equals(msg.getSender())) {
+                    OutgoingTransfer t = outgoing.get(msg.getMessageId());
+                    if (t != null) t.abort(msg.getContent());
+                } else {
+                    handleIncomingTransfer(msg);    // a transfer to us has ended
+                }
+                break;
+            case TRANSFER_START:
+            case TRANSFER_CHUNK:
+                handleIncomingTransfer(msg);
+                break;
+            case PING:
+                try {
+                    send(new ChatMessage(MessageType.PONG, username, null, null, null,
+                            System.currentTimeMillis()));
+                } catch (IOException e) {
+                    System.out.println("Failed to answer PING: " + e.getMessage());
+                }
+                break;
+            case PONG:
+                break;
             default:
                 System.out.println("[INFO] " + msg.getType() + " " + msg.getContent());
         }
     }
 
-    private void send(ChatMessage msg) throws IOException {
+    private void handleIncomingTransfer(ChatMessage msg) {
+        try {
+            incoming.handle(msg);
+        } catch (IOException e) {
+            System.out.println("[FILE] Write failed: " + e.getMessage());
+        }
+    }
+
+    // "joined=alice,bob;left=carol" -> "joined: alice, bob | left: carol"
+    private static String formatPresence(String digest) {
+        StringBuilder sb = new StringBuilder();
+        for (String part : digest.split(";")) {
+            String[] kv = part.split("=", 2);
+            if (kv.length < 2 || kv[1].isEmpty()) continue;
+            if (sb.length() > 0) sb.append(" | ");
+            sb.append(kv[0]).append(": ").append(kv[1].replace(",", ", "));
+        }
+        return sb.toString();
+    }
+
+    // Send a file in the background; target is a username or #room
+    private void sendFile(String target, File file) {
+        boolean toRoom = target.startsWith("#");
+        OutgoingTransfer transfer = new OutgoingTransfer(this::send, username, toRoom ? null : target,
+                toRoom ? target.substring(1) : null, config.getTransferChunkBytes());
+        outgoing.put(transfer.getId(), transfer);
+
+        new Thread(() -> {
+            try (InputStream data = new BufferedInputStream(new FileInputStream(file))) {
+                long sent = transfer.run(file.getName(), file.length(), data);
+                System.out.println("[FILE] Sent " + file.getName() + " (" + sent + " bytes)");
+            } catch (IOException e) {
+                System.out.println("[FILE] " + file.getName() + ": " + e.getMessage());
+            } finally {
+                outgoing.remove(transfer.getId());
+            }
+        }, "file-transfer").start();
+    }
+
+    private synchronized void send(ChatMessage msg) throws IOException {
         byte[] data = MessageSerializer.serialize(msg);
         OutputStream out = socket.getOutputStream();
         out.write(data);
@@ -137,15 +274,23 @@ public class SSLClient {
     }
 
     public static void main(String[] args) {
-        if (args.length < 2) {
-            System.out.println("Usage: java SSLClient <host> <port>");
+        List<String> positional = new ArrayList<>();
+        ChatConfig config;
+        try {
+            config = ChatConfig.fromArgs(args, positional).validate();
+        } catch (Exception e) {
+            System.out.println(e.getMessage());
+            return;
+        }
+        if (positional.size() < 2) {
+            System.out.println("Usage: java SSLClient <host> <port> [--config=file] [--key=value ...]");
             return;
         }
 
-        String host = args[0];
-        int port = Integer.parseInt(args[1]);
+        String host = positional.get(0);
+        int port = Integer.parseInt(positional.get(1));
 
-        SSLClient client = new SSLClient(host, port, true); // true = test mode (trust all)
+        SSLClient client = new SSLClient(host, port, true, config); // true = test mode (trust all)
 
         try {
             client.connect();
@@ -156,6 +301,8 @@ public class SSLClient {
             System.out.println("  /login <username>");
             System.out.println("  /join <room>");
             System.out.println("  /msg <user> <message>");
+            System.out.println("  /search <words> (in current room), /more for the next page");
+            System.out.println("  /sendfile <user|#room> <path>");
             System.out.println("  text without / = message to current room");
             System.out.println("  /quit");
 
@@ -235,6 +382,51 @@ public class SSLClient {
                     continue;
                 }
 
+                // /sendfile <user|#room> <path>
+                if (line.startsWith("/sendfile ")) {
+                    String[] parts = line.split("\\s+", 3);
+                    if (parts.length < 3) {
+                        System.out.println("Usage: /sendfile <user|#room> <path>");
+                        continue;
+                    }
+                    File file = new File(parts[2]);
+                    if (!file.isFile()) {
+                        System.out.println("No such file: " + parts[2]);
+                        continue;
+                    }
+                    client.sendFile(parts[1], file);
+                    continue;
+                }
+
+                // /search <words>, /more
+                if (line.startsWith("/search ") || line.equalsIgnoreCase("/more")) {
+                    if (client.currentRoom == null) {
+                        System.out.println("You must /join a room before searching it.");
+                        continue;
+                    }
+                    long before = 0;
+                    if (line.startsWith("/search ")) {
+                        client.lastQuery = line.substring(8).trim();
+                    } else if (client.lastQuery == null || client.nextCursor == 0) {
+                        System.out.println("No more results.");
+                        continue;
+                    } else {
+                        before = client.nextCursor;
+                    }
+
+                    ChatMessage search = new ChatMessage(
+                            MessageType.SEARCH_REQUEST,
+                            client.username,
+                            null,
+                            client.currentRoom,
+                            client.lastQuery,
+                            System.currentTimeMillis()
+                    );
+                    search.setMessageId(before);
+                    client.send(search);
+                    continue;
+                }
+
                 // Otherwise: room message
                 if (client.currentRoom == null) {
                     System.out.println("You must /join a room before sending room messages.");
@@ -0,0 +1,302 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSession;
+
+/**
+ * One selector thread of SSLTCPServer's nio mode: non-blocking channels, each with its
+ * own SSLEngine, speaking the same line echo protocol as the blocking modes.
+ *
+ * Per connection there are four buffers: netIn/netOut hold TLS records, appIn/appOut
+ * plaintext. Handshake tasks run inline on the loop thread. While netOut cannot be fully
+ * written the connection stops reading, so a client that does not read its echoes
+ * cannot make the server buffer without limit.
+ */
+class SSLEngineEchoLoop implements Runnable {
+
+    private final SSLContext sslContext;
+    private final TlsProfile profile;
+    private final Selector selector;
+    private final Queue<SocketChannel> incoming = new ConcurrentLinkedQueue<>();
+    private volatile boolean running = true;
+
+    SSLEngineEchoLoop(SSLContext sslContext, TlsProfile profile) throws IOException {
+        this.sslContext = sslContext;
+        this.profile = profile;
+        this.selector = Selector.open();
+    }
+
+    // Called from the acceptor thread
+    void add(SocketChannel channel) {
+        incoming.add(channel);
+        selector.wakeup();
+    }
+
+    void stop() {
+        running = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                selector.select();
+                SocketChannel channel;
+                while ((channel = incoming.poll()) != null) {
+                    register(channel);
+                }
+                for (SelectionKey key : selector.selectedKeys()) {
+                    Connection c = (Connection) key.attachment();
+                    try {
+                        if (key.isValid() && key.isWritable()) {
+                            c.onWritable();
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            c.onReadable();
+                        }
+                    } catch (IOException e) {
+                        c.close();
+                    }
+                }
+                selector.selectedKeys().clear();
+            } catch (IOException e) {
+                System.err.println("Selector error: " + e.getMessage());
+            }
+        }
+        for (SelectionKey key : selector.keys()) {
+            ((Connection) key.attachment()).close();
+        }
+    }
+
+    private void register(SocketChannel channel) {
+        try {
+            channel.configureBlocking(false);
+            SSLEngine engine = sslContext.createSSLEngine();
+            engine.setUseClientMode(false);
+            profile.apply(engine);
+            engine.beginHandshake();
+            SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+            key.attach(new Connection(channel, key, engine));
+        } catch (IOException | RuntimeException e) {
+            // One bad connection must not take the selector thread and its other clients down
+            if (e instanceof RuntimeException) {
+                System.err.println("Connection setup failed: " + e);
+            }
+            try {
+                channel.close();
+            } catch (IOException ignored) {}
+        }
+    }
+
+    private static final class Connection {
+        final SocketChannel channel;
+        final SelectionKey key;
+        final SSLEngine engine;
+
+        ByteBuffer netIn;       // write mode: records read from the socket, not yet unwrapped
+        ByteBuffer appIn;       // write mode: plaintext not yet split into lines
+        ByteBuffer appOut;      // write mode: echoes not yet wrapped
+        final ByteBuffer netOut;    // write mode: records not yet written to the socket
+        int scanned;            // bytes of appIn already known to hold no '\n'
+        boolean quitting;
+
+        Connection(SocketChannel channel, SelectionKey key, SSLEngine engine) {
+            this.channel = channel;
+            this.key = key;
+            this.engine = engine;
+            SSLSession session = engine.getSession();
+            this.netIn = ByteBuffer.allocateDirect(session.getPacketBufferSize());
+            this.netOut = ByteBuffer.allocateDirect(session.getPacketBufferSize());
+            this.appIn = ByteBuffer.allocate(session.getApplicationBufferSize());
+            this.appOut = ByteBuffer.allocate(session.getApplicationBufferSize());
+            appOut.put(SSLTCPServer.WELCOME);   // sent once the handshake is done
+        }
+
+        void onReadable() throws IOException {
+            if (channel.read(netIn) < 0) {
+                close();
+                return;
+            }
+            pump();
+        }
+
+        void onWritable() throws IOException {
+            if (flush()) {
+                pump();     // resume what was held back while the socket was full
+            }
+        }
+
+        // Drive the engine as far as the buffered data allows, then write out the result
+        private void pump() throws IOException {
+            boolean progress = true;
+            while (progress && channel.isOpen()) {
+                switch (engine.getHandshakeStatus()) {
+                    case NEED_TASK:
+                        Runnable task;
+                        while ((task = engine.getDelegatedTask()) != null) {
+                            task.run();
+                        }
+                        break;
+                    case NEED_WRAP:
+                        progress = wrap();
+                        break;
+                    case NEED_UNWRAP:
+                    case NEED_UNWRAP_AGAIN:
+                        progress = unwrap();
+                        break;
+                    default:
+                        boolean read = unwrap();
+                        if (read) {
+                            echoLines();
+                        }
+                        if (quitting && appOut.position() == 0 && !engine.isOutboundDone()) {
+                            engine.closeOutbound();     // close_notify is wrapped next round
+                            read = true;
+                        }
+                        progress = (appOut.position() > 0 && wrap()) || read;
+                }
+            }
+            flush();
+        }
+
+        private boolean unwrap() throws IOException {
+            netIn.flip();
+            SSLEngineResult result = engine.unwrap(netIn, appIn);
+            netIn.compact();
+            switch (result.getStatus()) {
+                case OK:
+                    return result.bytesConsumed() > 0 || result.bytesProduced() > 0;
+                case BUFFER_UNDERFLOW:
+                    // Need more bytes; make room if a whole record does not fit
+                    if (netIn.remaining() < engine.getSession().getPacketBufferSize()) {
+                        netIn = grow(netIn, engine.getSession().getPacketBufferSize());
+                    }
+                    return false;
+                case BUFFER_OVERFLOW:
+                    echoLines();
+                    if (appIn.remaining() < engine.getSession().getApplicationBufferSize()) {
+                        if (appIn.capacity() > SSLTCPServer.MAX_LINE) {
+                            throw new IOException("Line too long");
+                        }
+                        appIn = grow(appIn, engine.getSession().getApplicationBufferSize());
+                    }
+                    return true;
+                default: // CLOSED
+                    quitting = true;
+                    return false;
+            }
+        }
+
+        // Wrap as much of appOut as the socket takes; compacting once keeps long echoes linear
+        private boolean wrap() throws IOException {
+            boolean progress = false;
+            appOut.flip();
+            try {
+                while (true) {
+                    SSLEngineResult result = engine.wrap(appOut, netOut);
+                    switch (result.getStatus()) {
+                        case OK:
+                            progress |= result.bytesConsumed() > 0 || result.bytesProduced() > 0;
+                            if (!appOut.hasRemaining() || result.getHandshakeStatus() != HandshakeStatus.NOT_HANDSHAKING) {
+                                return progress;
+                            }
+                            break;
+                        case BUFFER_OVERFLOW:
+                            // netOut is full: only go on if writing it out freed enough room
+                            if (!flush() && netOut.remaining() < engine.getSession().getPacketBufferSize()) {
+                                return progress;
+                            }
+                            break;
+                        case CLOSED:
+                            return progress || result.bytesProduced() > 0;
+                        default:
+                            throw new SSLException("Unexpected wrap status " + result.getStatus());
+                    }
+                }
+            } finally {
+                appOut.compact();
+            }
+        }
+
+        /**
+         * Write netOut to the socket. Returns true if everything was written; otherwise
+         * waits for OP_WRITE and stops reading until then.
+         */
+        private boolean flush() throws IOException {
+            if (netOut.position() > 0) {
+                netOut.flip();
+                channel.write(netOut);
+                netOut.compact();
+            }
+            if (netOut.position() > 0) {
+                key.interestOps(SelectionKey.OP_WRITE);
+                return false;
+            }
+            if (engine.isOutboundDone()) {
+                close();
+                return false;
+            }
+            key.interestOps(SelectionKey.OP_READ);
+            return true;
+        }
+
+        // Turn every complete line of appIn into an echo in appOut
+        private void echoLines() {
+            byte[] in = appIn.array();
+            int start = 0;
+            int end = appIn.position();
+            for (int i = scanned; i < end && !quitting; i++) {
+                if (in[i] != '\n') {
+                    continue;
+                }
+                if (SSLTCPServer.isQuit(in, start, i - start)) {
+                    put(SSLTCPServer.GOODBYE, 0, SSLTCPServer.GOODBYE.length);
+                    quitting = true;
+                } else {
+                    put(SSLTCPServer.ECHO_PREFIX, 0, SSLTCPServer.ECHO_PREFIX.length);
+                    put(in, start, i - start + 1);  // line and its '\n'
+                }
+                start = i + 1;
+            }
+            // Only move the unfinished line when something before it was consumed
+            if (start > 0) {
+                appIn.flip().position(start);
+                appIn.compact();
+            }
+            scanned = appIn.position();
+        }
+
+        private void put(byte[] data, int offset, int length) {
+            if (appOut.remaining() < length) {
+                appOut = grow(appOut, length);
+            }
+            appOut.put(data, offset, length);
+        }
+
+        void close() {
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException ignored) {}
+        }
+    }
+
+    // Bigger copy of a buffer in write mode, with at least extra more bytes free
+    private static ByteBuffer grow(ByteBuffer buffer, int extra) {
+        int capacity = Math.max(buffer.capacity() * 2, buffer.position() + extra);
+        ByteBuffer bigger = buffer.isDirect() ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+        buffer.flip();
+        bigger.put(buffer);
+        return bigger;
+    }
+}
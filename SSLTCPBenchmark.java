@@ -0,0 +1,248 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Phaser;
+import javax.net.ssl.*;
+
+/**
+ * Load client for SSLTCPServer: echo throughput and round-trip latency per message size.
+ *
+ * Each connection runs on its own thread, keeps "pipeline" lines in flight and times
+ * every echo from send to receipt (with pipeline=1 that is the plain round trip).
+ * Every size gets a warmup period that is not measured, then the measured period.
+ * A connection that fails stops the whole run, which reports the error and exits 1.
+ *
+ * Comparing these numbers with TrafficReplay against SecureChatServer separates the
+ * TLS and socket cost from the chat protocol and routing cost.
+ */
+public class SSLTCPBenchmark {
+
+    private final String host;
+    private final int port;
+    private final int connections;
+    private final int pipeline;
+    private final long warmupNanos;
+    private final long measureNanos;
+
+    private final SSLSocketFactory factory;
+
+    public SSLTCPBenchmark(String host, int port, int connections, int pipeline, double warmupSeconds,
+                           double measureSeconds) throws Exception {
+        this.host = host;
+        this.port = port;
+        this.connections = connections;
+        this.pipeline = Math.max(1, pipeline);
+        this.warmupNanos = (long) (warmupSeconds * 1e9);
+        this.measureNanos = (long) (measureSeconds * 1e9);
+        this.factory = SSLClient.createSSLContext(true).getSocketFactory();
+    }
+
+    // One connection's results for one size
+    private static final class Samples {
+        long[] latencies = new long[4096];
+        int count;
+        long bytes;
+
+        void add(long nanos, int size) {
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = nanos;
+            bytes += size;
+        }
+    }
+
+    /**
+     * Returns false if a connection failed; the run stops at the first failure.
+     */
+    public boolean run(int[] sizes) throws Exception {
+        List<Worker> workers = new ArrayList<>();
+        // Terminated by a failing worker, which wakes everyone waiting on it
+        Phaser phaser = new Phaser(connections + 1);
+        for (int i = 0; i < connections; i++) {
+            Worker w = new Worker(sizes, phaser);
+            workers.add(w);
+            w.start();
+        }
+
+        System.out.println("Connections: " + connections + ", pipeline: " + pipeline
+                + ", measured " + measureNanos / 1_000_000_000.0 + " s per size");
+        System.out.println(String.format("%8s %12s %10s %10s %10s %10s",
+                "size", "echoes/s", "MB/s", "p50", "p99", "max"));
+
+        for (int s = 0; s < sizes.length; s++) {
+            phaser.arriveAndAwaitAdvance();     // everyone connected / done with the previous size
+            phaser.arriveAndAwaitAdvance();     // everyone done with this size
+            if (phaser.isTerminated()) {
+                break;
+            }
+            report(sizes[s], workers, s);
+        }
+        boolean ok = true;
+        for (Worker w : workers) {
+            if (!phaser.isTerminated()) {
+                w.join();   // after a failure the others are not waited for
+            }
+            if (w.error != null) {
+                System.out.println("Connection error: " + w.error);
+                ok = false;
+            }
+        }
+        return ok;
+    }
+
+    private void report(int size, List<Worker> workers, int sizeIndex) {
+        int total = 0;
+        long bytes = 0;
+        for (Worker w : workers) {
+            total += w.results[sizeIndex].count;
+            bytes += w.results[sizeIndex].bytes;
+        }
+        long[] all = new long[total];
+        int pos = 0;
+        for (Worker w : workers) {
+            Samples samples = w.results[sizeIndex];
+            System.arraycopy(samples.latencies, 0, all, pos, samples.count);
+            pos += samples.count;
+        }
+        Arrays.sort(all);
+
+        double seconds = measureNanos / 1e9;
+        if (all.length == 0) {
+            System.out.println(String.format("%8d %12s", size, "no echoes"));
+            return;
+        }
+        System.out.println(String.format("%8d %12.0f %10.2f %10s %10s %10s",
+                size, total / seconds, bytes / seconds / (1024 * 1024),
+                millis(percentile(all, 50)), millis(percentile(all, 99)), millis(all[all.length - 1])));
+    }
+
+    private final class Worker extends Thread {
+        final int[] sizes;
+        final Phaser phaser;
+        final Samples[] results;
+        volatile Exception error;
+
+        Worker(int[] sizes, Phaser phaser) {
+            super("bench");
+            setDaemon(true);
+            this.sizes = sizes;
+            this.phaser = phaser;
+            this.results = new Samples[sizes.length];
+            for (int i = 0; i < sizes.length; i++) {
+                results[i] = new Samples();
+            }
+        }
+
+        @Override
+        public void run() {
+            SSLSocket socket = null;
+            try {
+                socket = SSLClient.openSocket(factory, host, port, new ChatConfig());
+                socket.startHandshake();
+                SSLTCPServer.LineReader in = new SSLTCPServer.LineReader(socket.getInputStream(),
+                        SSLTCPServer.MAX_LINE + 64);
+                OutputStream out = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024);
+                in.next(null);  // welcome line
+
+                for (int s = 0; s < sizes.length; s++) {
+                    if (phaser.arriveAndAwaitAdvance() < 0) {
+                        return;     // another connection failed
+                    }
+                    runSize(sizes[s], results[s], in, out);
+                    if (phaser.arriveAndAwaitAdvance() < 0) {
+                        return;
+                    }
+                }
+                out.write("quit\n".getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+            } catch (Exception e) {
+                error = e;
+                phaser.forceTermination();
+            } finally {
+                if (socket != null) {
+                    try {
+                        socket.close();
+                    } catch (IOException ignored) {}
+                }
+            }
+        }
+
+        private void runSize(int size, Samples samples, SSLTCPServer.LineReader in, OutputStream out)
+                throws IOException {
+            byte[] line = new byte[size + 1];
+            Arrays.fill(line, (byte) 'x');
+            line[size] = '\n';
+            int expected = SSLTCPServer.ECHO_PREFIX.length + size;
+
+            // Send times of the lines in flight, oldest first
+            long[] sentAt = new long[pipeline];
+            int oldest = 0;
+            for (int i = 0; i < pipeline; i++) {
+                sentAt[i] = System.nanoTime();
+                out.write(line);
+            }
+            out.flush();
+
+            long start = System.nanoTime();
+            long measureFrom = start + warmupNanos;
+            long stopAt = measureFrom + measureNanos;
+            while (true) {
+                if (!in.next(null)) {
+                    throw new EOFException("Server closed the connection");
+                }
+                long now = System.nanoTime();
+                if (in.lineLength() != expected) {
+                    throw new IOException("Unexpected echo length " + in.lineLength() + ", expected " + expected);
+                }
+                if (now >= measureFrom && now < stopAt) {
+                    samples.add(now - sentAt[oldest], size);
+                }
+                if (now >= stopAt) {
+                    break;
+                }
+                sentAt[oldest] = System.nanoTime();
+                oldest = (oldest + 1) % pipeline;
+                out.write(line);
+                out.flush();
+            }
+            // Collect what is still in flight so the next size starts clean
+            for (int i = 1; i < pipeline; i++) {
+                in.next(null);
+            }
+        }
+    }
+
+    private static long percentile(long[] sorted, int p) {
+        int index = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, index)];
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.3fms", nanos / 1e6);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("Usage: java SSLTCPBenchmark <host> <port> [connections] [sizes] [pipeline] [seconds]");
+            System.out.println("  connections: parallel connections (default 8)");
+            System.out.println("  sizes:       comma-separated line sizes in bytes (default 16,256,4096,65536)");
+            System.out.println("  pipeline:    lines in flight per connection (default 1 = ping-pong)");
+            System.out.println("  seconds:     measured time per size, after 1 s of warmup (default 5)");
+            return;
+        }
+
+        String host = args[0];
+        int port = Integer.parseInt(args[1]);
+        int connections = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+        int[] sizes = Arrays.stream((args.length > 3 ? args[3] : "16,256,4096,65536").split(","))
+                .mapToInt(Integer::parseInt).toArray();
+        int pipeline = args.length > 4 ? Integer.parseInt(args[4]) : 1;
+        double seconds = args.length > 5 ? Double.parseDouble(args[5]) : 5;
+
+        boolean ok = new SSLTCPBenchmark(host, port, connections, pipeline, 1, seconds).run(sizes);
+        System.exit(ok ? 0 : 1);
+    }
+}
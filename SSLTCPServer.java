@@ -1,29 +1,104 @@
 import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
 import java.security.KeyStore;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import javax.net.ssl.*;
 
+/**
+ * Line-based TLS echo server, also used as the transport baseline for SecureChatServer:
+ * it does TLS and socket I/O and nothing else, so SSLTCPBenchmark against it shows what
+ * the transport costs on its own.
+ *
+ * Modes:
+ *   blocking - one platform thread per client (the original design)
+ *   virtual  - one virtual thread per client (Java 21+; platform threads on older JVMs)
+ *   nio      - a few selector threads driving an SSLEngine per client, see SSLEngineEchoLoop
+ *
+ * Every mode applies the same TlsProfile (MODERN unless given), so profiles can be compared
+ * end to end here and in isolation with TlsBenchmark.
+ *
+ * Lines are handled as bytes and echoes are flushed only when no complete line is left
+ * to read, so pipelined requests are answered in as few TLS records as possible.
+ */
 public class SSLTCPServer {
 
+    public enum Mode { BLOCKING, VIRTUAL, NIO }
+
+    static final int MAX_LINE = 1024 * 1024;
+    static final byte[] WELCOME = "Welcome to the SSL server. Type 'quit' to exit.\n".getBytes(StandardCharsets.US_ASCII);
+    static final byte[] ECHO_PREFIX = "Echo: ".getBytes(StandardCharsets.US_ASCII);
+    static final byte[] GOODBYE = "Goodbye!\n".getBytes(StandardCharsets.US_ASCII);
+
     // Server configuration
     private int port;
-    private SSLServerSocket serverSocket;
-    private boolean isRunning;
+    private final Mode mode;
+    private final SSLContext sslContext;
+    private final TlsProfile profile;
+    private SSLServerSocket serverSocket;           // blocking and virtual modes
+    private ServerSocketChannel serverChannel;      // nio mode
+    private SSLEngineEchoLoop[] loops;
+    private ExecutorService handlers;
+    private volatile boolean isRunning;
 
     public SSLTCPServer(int port, String keystorePath, String password) throws Exception {
+        this(port, keystorePath, password, Mode.BLOCKING, 1, TlsProfile.MODERN);
+    }
+
+    /**
+     * @param nioThreads selector threads in nio mode (ignored otherwise)
+     */
+    public SSLTCPServer(int port, String keystorePath, String password, Mode mode, int nioThreads,
+                        TlsProfile profile) throws Exception {
         this.port = port;
+        this.mode = mode;
+        this.profile = profile;
 
         // Create SSLContext from our JKS keystore
-        SSLContext sslContext = createSSLContext(keystorePath, password);
+        this.sslContext = createSSLContext(keystorePath, password);
 
-        // Create the SSL server socket
-        SSLServerSocketFactory factory = sslContext.getServerSocketFactory();
-        this.serverSocket = (SSLServerSocket) factory.createServerSocket(port);
+        if (mode == Mode.NIO) {
+            // Fail here, like the blocking modes do, rather than on every accepted connection
+            SSLEngine probe = sslContext.createSSLEngine();
+            probe.setUseClientMode(false);
+            profile.apply(probe);
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress(port), 1024);
+            loops = new SSLEngineEchoLoop[Math.max(1, nioThreads)];
+            for (int i = 0; i < loops.length; i++) {
+                loops[i] = new SSLEngineEchoLoop(sslContext, profile);
+                Thread t = new Thread(loops[i], "echo-loop-" + i);
+                t.setDaemon(true);
+                t.start();
+            }
+        } else {
+            // Create the SSL server socket
+            SSLServerSocketFactory factory = sslContext.getServerSocketFactory();
+            this.serverSocket = (SSLServerSocket) factory.createServerSocket(port, 1024);
+            profile.apply(serverSocket);
+            this.handlers = mode == Mode.VIRTUAL ? newVirtualThreadExecutor() : null;
+        }
         this.isRunning = true;
+        this.port = serverChannel != null ? serverChannel.socket().getLocalPort() : serverSocket.getLocalPort();
 
-        System.out.println("SSL TCP Server started on port " + port);
+        System.out.println("SSL TCP Server started on port " + this.port + " (" + mode.name().toLowerCase() + " mode, "
+                + profile + " profile)");
+    }
+
+    // Virtual threads are final in Java 21; looked up reflectively so this still builds on 17
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            System.out.println("Virtual threads need Java 21+, using platform threads instead");
+            return Executors.newCachedThreadPool();
+        }
     }
 
-   
     private SSLContext createSSLContext(String keystorePath, String password) throws Exception {
         // Load the keystore file (server.jks)
         KeyStore keyStore = KeyStore.getInstance("JKS");
@@ -42,17 +117,46 @@ public class SSLTCPServer {
         return context;
     }
 
+    // The bound port, also when 0 was asked for
+    public int getPort() {
+        return port;
+    }
+
     public void launch() {
         System.out.println("Server waiting for SSL connections...");
+        if (mode == Mode.NIO) {
+            acceptChannels();
+            return;
+        }
         while (isRunning) {
             try {
                 // Wait for a client
                 SSLSocket clientSocket = (SSLSocket) serverSocket.accept();
-                System.out.println("New client connected: " + clientSocket.getInetAddress());
+                clientSocket.setTcpNoDelay(true);
 
                 // Handle client in a separate thread
-                new Thread(() -> handleClient(clientSocket)).start();
+                if (handlers != null) {
+                    handlers.execute(() -> handleClient(clientSocket));
+                } else {
+                    new Thread(() -> handleClient(clientSocket)).start();
+                }
+
+            } catch (IOException e) {
+                if (isRunning) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
 
+    // nio mode: accept here, spread the connections over the selector threads
+    private void acceptChannels() {
+        int next = 0;
+        while (isRunning) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                channel.socket().setTcpNoDelay(true);
+                loops[next++ % loops.length].add(channel);
             } catch (IOException e) {
                 if (isRunning) {
                     e.printStackTrace();
@@ -62,44 +166,121 @@ public class SSLTCPServer {
     }
 
     private void handleClient(SSLSocket clientSocket) {
-        try {
+        try (clientSocket) {
             // Perform SSL handshake
             clientSocket.startHandshake();
-            System.out.println("SSL handshake OK with " + clientSocket.getInetAddress());
 
             // Encrypted input/output streams
-            BufferedReader in = new BufferedReader(
-                    new InputStreamReader(clientSocket.getInputStream()));
-            PrintWriter out = new PrintWriter(
-                    new OutputStreamWriter(clientSocket.getOutputStream()), true);
-
-            out.println("Welcome to the SSL server. Type 'quit' to exit.");
+            LineReader in = new LineReader(clientSocket.getInputStream(), MAX_LINE);
+            OutputStream out = new BufferedOutputStream(clientSocket.getOutputStream(), 16 * 1024);
 
-            String line;
-            while ((line = in.readLine()) != null) {
-                System.out.println("Received from client: " + line);
-
-                if ("quit".equalsIgnoreCase(line.trim())) {
-                    out.println("Goodbye!");
+            out.write(WELCOME);
+            while (in.next(out)) {
+                if (isQuit(in.buffer(), in.lineStart(), in.lineLength())) {
+                    out.write(GOODBYE);
+                    out.flush();
                     break;
                 }
 
                 // Echo back the message
-                out.println("Echo: " + line);
+                out.write(ECHO_PREFIX);
+                out.write(in.buffer(), in.lineStart(), in.lineLength());
+                out.write('\n');
             }
 
-            clientSocket.close();
-            System.out.println("Client disconnected.");
-
         } catch (Exception e) {
             System.err.println("Client error: " + e.getMessage());
         }
     }
 
+    // "quit", any case, surrounding whitespace allowed
+    static boolean isQuit(byte[] line, int offset, int length) {
+        int start = offset, end = offset + length;
+        while (start < end && line[start] <= ' ') start++;
+        while (end > start && line[end - 1] <= ' ') end--;
+        if (end - start != 4) {
+            return false;
+        }
+        return (line[start] | 0x20) == 'q' && (line[start + 1] | 0x20) == 'u'
+                && (line[start + 2] | 0x20) == 'i' && (line[start + 3] | 0x20) == 't';
+    }
+
+    /**
+     * Reads '\n'-terminated lines directly from a byte buffer, without a String per line.
+     * Shared with SSLTCPBenchmark.
+     */
+    static final class LineReader {
+        private final InputStream in;
+        private final int maxLine;
+        private byte[] buf = new byte[16 * 1024];
+        private int start, end, scanned;
+        private int lineStart, lineLength;
+
+        LineReader(InputStream in, int maxLine) {
+            this.in = in;
+            this.maxLine = maxLine;
+        }
+
+        /**
+         * Advance to the next line; false at end of stream. If a read has to block first,
+         * pending output is flushed (may be null), so replies to pipelined lines go out together.
+         */
+        boolean next(OutputStream flushBeforeRead) throws IOException {
+            while (true) {
+                for (int i = scanned; i < end; i++) {
+                    if (buf[i] == '\n') {
+                        lineStart = start;
+                        lineLength = i - start;
+                        start = i + 1;
+                        scanned = start;
+                        return true;
+                    }
+                }
+                scanned = end;
+
+                if (start > 0) {
+                    System.arraycopy(buf, start, buf, 0, end - start);
+                    end -= start;
+                    scanned -= start;
+                    start = 0;
+                }
+                if (end == buf.length) {
+                    if (buf.length >= maxLine) {
+                        throw new IOException("Line too long");
+                    }
+                    buf = Arrays.copyOf(buf, Math.min(buf.length * 2, maxLine));
+                }
+                if (flushBeforeRead != null) {
+                    flushBeforeRead.flush();
+                }
+                int n = in.read(buf, end, buf.length - end);
+                if (n < 0) {
+                    return false;
+                }
+                end += n;
+            }
+        }
+
+        byte[] buffer() { return buf; }
+        int lineStart() { return lineStart; }
+        int lineLength() { return lineLength; }
+    }
+
     public void shutdown() {
         isRunning = false;
         try {
-            serverSocket.close();
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+            if (serverChannel != null) {
+                serverChannel.close();
+                for (SSLEngineEchoLoop loop : loops) {
+                    loop.stop();
+                }
+            }
+            if (handlers != null) {
+                handlers.shutdownNow();
+            }
             System.out.println("Server shutdown.");
         } catch (IOException e) {
             e.printStackTrace();
@@ -107,17 +288,21 @@ public class SSLTCPServer {
     }
 
     public static void main(String[] args) {
-        if (args.length != 3) {
-            System.out.println("Usage: java SSLTCPServer <port> <keystorePath> <password>");
+        if (args.length < 3 || args.length > 6) {
+            System.out.println("Usage: java SSLTCPServer <port> <keystorePath> <password> [blocking|virtual|nio] [nioThreads] [tlsProfile]");
+            System.out.println("  tlsProfile: one of " + Arrays.toString(TlsProfile.values()) + " (default MODERN)");
             return;
         }
 
         int port = Integer.parseInt(args[0]);
         String keystorePath = args[1];
         String password = args[2];
+        Mode mode = args.length > 3 ? Mode.valueOf(args[3].toUpperCase()) : Mode.BLOCKING;
+        int nioThreads = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+        TlsProfile profile = args.length > 5 ? TlsProfile.valueOf(args[5].toUpperCase()) : TlsProfile.MODERN;
 
         try {
-            SSLTCPServer server = new SSLTCPServer(port, keystorePath, password);
+            SSLTCPServer server = new SSLTCPServer(port, keystorePath, password, mode, nioThreads, profile);
             server.launch();
         } catch (Exception e) {
             e.printStackTrace();
@@ -1,25 +1,158 @@
 import java.io.*;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
 import java.nio.ByteBuffer;
 import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import javax.net.ssl.*;
 
 public class SecureChatServer {
 
-    private SSLServerSocket serverSocket;
+    // Plain TCP listener: TLS is layered per connection with the current SSLContext,
+    // so a reloaded keystore applies to new handshakes without re-binding the port
+    private ServerSocket serverSocket;
+    private final AtomicReference<SSLContext> sslContext = new AtomicReference<>();
+    private long keystoreModified;
+    private long keystoreLength;
     private boolean running = false;
 
     private final Map<String, ClientSession> activeSessions = new ConcurrentHashMap<>();
     private final Map<String, ChatRoom> chatRooms = new ConcurrentHashMap<>();
     private final Map<SSLSocket, ClientSession> socketSessions = new ConcurrentHashMap<>();
+    // Recently seen client message IDs, per username so they survive a reconnect
+    private final Map<String, MessageIdCache> dedupCaches = new ConcurrentHashMap<>();
 
     private final ProtocolParser messageParser = new ProtocolParser();
+    private final ChatConfig config;
+    private final ServerMetrics metrics = new ServerMetrics();
+    private final OfflineMessageStore offlineStore;
+    private final TrafficRecorder trafficRecorder;   // null = no capture
+    private final RateLimitPolicy rateLimitPolicy;
+
+    private final int dedupCapacity;
+    private final long dedupTtlMillis;
+
+    // Joins and leaves within this window are sent as one PRESENCE_UPDATE per room
+    private final long presenceWindowMillis;
+    // Rooms bigger than this get no presence notices at all
+    private final int presenceMaxRoomSize;
+
+    // Heartbeats: PING after pingInterval of silence, disconnect after idleTimeout
+    private final long pingIntervalMillis;
+    private final long idleTimeoutMillis;
+    private final HashedWheelTimer timer;
+
+    // Outbound writers: up to threads.writers, idle ones exit. Each session queues at most
+    // one drain task, so the queue is bounded by the sessions; a client that stops reading
+    // holds its thread only until outbound.write.timeout.millis disconnects it
+    private final ThreadPoolExecutor writerExecutor;
+    private final long writeTimeoutMillis;
+    // Room messages are indexed for search on one background thread, off the broadcast path;
+    // when it falls behind by more than search.index.queue messages, the excess is not indexed
+    private final ExecutorService indexExecutor;
+    // PING writes, presence digests and closes can block, so they are kept off the wheel thread
+    private final ExecutorService housekeepingExecutor;
+
+    // Connections over capacity are refused right after accept, before any TLS work.
+    // One thread tells a few of them when to come back (that costs a handshake);
+    // when it is busy, or handshakes are the problem, the rest are just closed.
+    private final AdmissionController admission;
+    private final ExecutorService noticeExecutor;     // null = never send busy notices
+    private AdmissionController.Reason shedding;      // sampler thread only
 
     public SecureChatServer(int port, String keystorePath, String password) throws Exception {
-        SSLContext context = createSSLContext(keystorePath, password);
-        SSLServerSocketFactory ssf = context.getServerSocketFactory();
-        serverSocket = (SSLServerSocket) ssf.createServerSocket(port);
+        this(defaultConfig(port, keystorePath, password));
+    }
+
+    public SecureChatServer(ChatConfig config) throws Exception {
+        this.config = config.validate();
+
+        File keystore = new File(config.getKeystorePath());
+        keystoreModified = keystore.lastModified();
+        keystoreLength = keystore.length();
+        sslContext.set(createSSLContext(config.getKeystorePath(), config.getKeystorePassword()));
+
+        serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(config.isReuseAddress());
+        if (config.getReceiveBufferBytes() > 0) {
+            // Must be set before bind to allow windows larger than 64 KB on accepted sockets
+            serverSocket.setReceiveBufferSize(config.getReceiveBufferBytes());
+        }
+        serverSocket.bind(new InetSocketAddress(config.getPort()), config.getAcceptBacklog());
+
+        rateLimitPolicy = config.buildRateLimitPolicy();
+        dedupCapacity = config.getDedupCapacity();
+        dedupTtlMillis = config.getDedupTtlMillis();
+        presenceWindowMillis = config.getPresenceWindowMillis();
+        presenceMaxRoomSize = config.getPresenceMaxRoomSize();
+        pingIntervalMillis = config.getPingIntervalMillis();
+        idleTimeoutMillis = config.getIdleTimeoutMillis();
+
+        timer = new HashedWheelTimer(config.getTimerTickMillis(), TimeUnit.MILLISECONDS, config.getTimerWheelSize());
+        writeTimeoutMillis = config.getWriteTimeoutMillis();
+        writerExecutor = new ThreadPoolExecutor(config.getWriterThreads(), config.getWriterThreads(),
+                60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+                    Thread t = new Thread(r, "writer");
+                    t.setDaemon(true);
+                    return t;
+                });
+        writerExecutor.allowCoreThreadTimeOut(true);
+        housekeepingExecutor = Executors.newFixedThreadPool(config.getHousekeepingThreads(), r -> {
+            Thread t = new Thread(r, "housekeeping");
+            t.setDaemon(true);
+            return t;
+        });
+
+        indexExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(config.getSearchIndexQueue()), r -> {
+                    Thread t = new Thread(r, "search-indexer");
+                    t.setDaemon(true);
+                    return t;
+                }, (r, executor) -> metrics.increment("search.index.dropped"));
+
+        admission = config.buildAdmissionController();
+        noticeExecutor = config.getAdmissionNoticeQueue() == 0 ? null : new ThreadPoolExecutor(1, 1, 0,
+                TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(config.getAdmissionNoticeQueue()), r -> {
+                    Thread t = new Thread(r, "admission-notices");
+                    t.setDaemon(true);
+                    return t;
+                }, new ThreadPoolExecutor.AbortPolicy());
+
+        offlineStore = new OfflineMessageStore(new File(config.getOfflineSpillFile()),
+                config.getOfflineUserMemoryBytes(), config.getOfflineGlobalMemoryBytes(),
+                config.getOfflineMaxDiskBytes(), config.getOfflineSenderMaxBytes());
+
+        EventLog.get().setLevel(config.getLogLevel());
+        if (config.getLogFile() != null) {
+            EventLog.get().setOutput(new File(config.getLogFile()), config.getLogMaxBytes(), config.getLogMaxFiles());
+        }
+        trafficRecorder = config.getCaptureFile() != null
+                ? new TrafficRecorder(new File(config.getCaptureFile())) : null;
+    }
+
+    private static ChatConfig defaultConfig(int port, String keystorePath, String password) {
+        ChatConfig config = new ChatConfig();
+        config.set("server.port", String.valueOf(port));
+        config.set("keystore.path", keystorePath);
+        config.set("keystore.password", password);
+        return config;
     }
 
     private SSLContext createSSLContext(String keystorePath, String password) throws Exception {
@@ -36,64 +169,310 @@ public class SecureChatServer {
         return context;
     }
 
+    public ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    // The bound port, also when server.port is 0
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public AdmissionController getAdmission() {
+        return admission;
+    }
+
+    /**
+     * Load the keystore again and use it for every handshake from now on.
+     * Established sessions keep the context they were created with.
+     * On failure the current context stays in place.
+     *
+     * Each reload builds a fresh SSLContext with an empty session cache, so after a
+     * rotation no earlier TLS session can be resumed: every client does one full handshake.
+     */
+    public boolean reloadKeystore() {
+        try {
+            SSLContext fresh = createSSLContext(config.getKeystorePath(), config.getKeystorePassword());
+            sslContext.set(fresh);
+            metrics.increment("tls.keystore.reloads");
+            EventLog.info("tls.keystore_reloaded", "path", config.getKeystorePath());
+            return true;
+        } catch (Exception e) {
+            metrics.increment("tls.keystore.reload_failures");
+            EventLog.error("tls.keystore_reload_failed", "path", config.getKeystorePath(), "error", e.getMessage());
+            return false;
+        }
+    }
+
+    // Poll the keystore file; a change of mtime or size triggers a reload
+    private void scheduleKeystoreCheck() {
+        timer.newTimeout(t -> housekeepingExecutor.execute(() -> {
+            File keystore = new File(config.getKeystorePath());
+            long modified = keystore.lastModified();
+            long length = keystore.length();
+            if (modified != 0 && (modified != keystoreModified || length != keystoreLength)) {
+                // A half-written file fails to load; it is retried on the next check
+                if (reloadKeystore()) {
+                    keystoreModified = modified;
+                    keystoreLength = length;
+                }
+            }
+            scheduleKeystoreCheck();
+        }), config.getKeystoreReloadMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    // Sample heap use and outbound queues for admission control; log when shedding starts and stops
+    private void scheduleAdmissionSample() {
+        timer.newTimeout(t -> {
+            int heapPercent = heapPercentAfterLastGc();
+            long queued = 0;
+            for (ClientSession session : socketSessions.values()) {
+                queued += session.getQueuedFrames();
+            }
+            admission.update(heapPercent, queued);
+
+            AdmissionController.Reason reason = admission.overloadReason();
+            if (reason != shedding) {
+                if (reason != null) {
+                    EventLog.warn("admission.shedding", "reason", reason, "load",
+                            "sessions=" + admission.getSessions() + " handshakes=" + admission.getPendingHandshakes()
+                                    + " heap=" + heapPercent + "% queued_frames=" + queued);
+                } else {
+                    EventLog.info("admission.recovered", "sessions", admission.getSessions());
+                }
+                shedding = reason;
+            }
+            scheduleAdmissionSample();
+        }, config.getAdmissionSampleMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Heap left in use by the most recent collection, as a percentage of the maximum.
+     * Current usage also counts garbage not collected yet, so it would shed load on a
+     * heap that is merely due for a young collection. Before the first collection
+     * nothing is known to be live, and 0 is returned.
+     */
+    private static int heapPercentAfterLastGc() {
+        com.sun.management.GcInfo last = null;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (gc instanceof com.sun.management.GarbageCollectorMXBean) {
+                com.sun.management.GcInfo info = ((com.sun.management.GarbageCollectorMXBean) gc).getLastGcInfo();
+                if (info != null && (last == null || info.getEndTime() > last.getEndTime())) {
+                    last = info;
+                }
+            }
+        }
+        if (last == null) {
+            return 0;
+        }
+        // Heap pools as that collection left them, including an old generation it did not collect
+        Map<String, MemoryUsage> after = last.getMemoryUsageAfterGc();
+        long used = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            MemoryUsage usage = after.get(pool.getName());
+            if (pool.getType() == MemoryType.HEAP && usage != null) {
+                used += usage.getUsed();
+            }
+        }
+        return (int) (used * 100 / Runtime.getRuntime().maxMemory());
+    }
+
+    private void scheduleMetricsLog() {
+        timer.newTimeout(t -> {
+            EventLog.info("metrics", "values", metrics.snapshot());
+            scheduleMetricsLog();
+        }, config.getMetricsLogMillis(), TimeUnit.MILLISECONDS);
+    }
+
     public void start() {
         running = true;
-        System.out.println("SecureChatServer started. Waiting for SSL clients...");
+        timer.start();
+        if (config.getKeystoreReloadMillis() > 0) {
+            scheduleKeystoreCheck();
+        }
+        if (config.getMetricsLogMillis() > 0) {
+            scheduleMetricsLog();
+        }
+        scheduleAdmissionSample();
+        EventLog.info("server.started", "port", serverSocket.getLocalPort());
         while (running) {
             try {
-                SSLSocket clientSocket = (SSLSocket) serverSocket.accept();
+                Socket raw = serverSocket.accept();
+                AdmissionController.Reason refused = admission.tryAdmit();
+                if (refused != null) {
+                    shed(raw, refused);
+                    continue;
+                }
+                metrics.increment("admission.accepted");
+                SSLSocket clientSocket;
+                try {
+                    config.applyTo(raw);
+                    clientSocket = layerTls(raw);
+                } catch (IOException e) {
+                    admission.closed(true);
+                    raw.close();
+                    throw e;
+                }
                 new Thread(() -> handleClient(clientSocket)).start();
             } catch (IOException e) {
                 if (running) {
-                    e.printStackTrace();
+                    EventLog.error("server.accept_failed", "error", e.getMessage());
                 }
             }
         }
     }
 
-    private void handleClient(SSLSocket socket) {
+    // Server-side TLS over an accepted socket, using whatever SSLContext is current and the configured profile
+    private SSLSocket layerTls(Socket raw) throws IOException {
+        SSLSocketFactory factory = sslContext.get().getSocketFactory();
+        SSLSocket socket = (SSLSocket) factory.createSocket(raw, raw.getInetAddress().getHostAddress(),
+                raw.getPort(), true);
+        socket.setUseClientMode(false);
+        config.getTlsProfile().apply(socket);
+        return socket;
+    }
+
+    /**
+     * Refuse a connection. Up to admission.notice.queue refused clients get a busy notice,
+     * an ERROR_RESPONSE with the suggested retry delay in its content; the rest are reset at
+     * once, with no TLS work at all. So are all of them while handshakes are the bottleneck.
+     */
+    private void shed(Socket raw, AdmissionController.Reason reason) {
+        metrics.increment("admission.rejected." + reason.name().toLowerCase());
+        EventLog.debug("admission.rejected", "reason", reason, "addr", raw.getInetAddress());
+        if (noticeExecutor != null && reason != AdmissionController.Reason.HANDSHAKES) {
+            try {
+                noticeExecutor.execute(() -> sendBusyNotice(raw, reason));
+                return;
+            } catch (RejectedExecutionException e) {
+                // notice thread busy: fall through to a plain reset
+            }
+        }
+        metrics.increment("admission.reset");
         try {
-            socket.startHandshake();
-            System.out.println("New client connected: " + socket.getInetAddress());
+            raw.setSoLinger(true, 0);   // RST: no TIME_WAIT left behind on the server
+            raw.close();
+        } catch (IOException ignored) {}
+    }
 
-            InputStream in = socket.getInputStream();
+    private void sendBusyNotice(Socket raw, AdmissionController.Reason reason) {
+        long retryAfter = admission.retryAfterMillis();
+        try (raw) {
+            raw.setSoTimeout(2_000);    // a slow client must not hold the notice thread
+            SSLSocket socket = layerTls(raw);
+            socket.startHandshake();
+            ChatMessage busy = new ChatMessage(MessageType.ERROR_RESPONSE, "server", null, null,
+                    AdmissionController.busyNotice(reason, retryAfter), System.currentTimeMillis());
             OutputStream out = socket.getOutputStream();
+            out.write(MessageSerializer.serialize(busy));
+            out.flush();
+            socket.close();
+            metrics.increment("admission.notices");
+        } catch (IOException e) {
+            metrics.increment("admission.notice_failures");
+        }
+    }
 
-            ClientSession session = new ClientSession(socket, out);
+    private void handleClient(SSLSocket socket) {
+        boolean handshaking = true;
+        try {
+            OutputStream out = socket.getOutputStream();
+            ClientSession session = new ClientSession(socket, out, rateLimitPolicy.newLimiter(), writerExecutor,
+                    config.getMaxRoomFramesPerSession(), config.getMaxOutboundBytesPerSession());
             socketSessions.put(socket, session);
 
+            // Armed before the handshake so a silent peer cannot hold the thread forever
+            scheduleIdleCheck(session, pingIntervalMillis);
+
+            // A peer that stalls mid-handshake would hold a handshake slot until the idle timeout
+            try {
+                socket.setSoTimeout((int) config.getHandshakeTimeoutMillis());
+                socket.startHandshake();
+                socket.setSoTimeout(0);
+            } finally {
+                handshaking = false;
+                admission.handshakeDone();
+            }
+            EventLog.info("client.connected", "addr", socket.getInetAddress());
+
+            InputStream in = socket.getInputStream();
+
             while (true) {
                 byte[] messageData = readFramedMessage(in);
                 if (messageData == null) {
                     break; // client closed
                 }
+                session.markRead();
+                if (trafficRecorder != null) {
+                    trafficRecorder.record(session.getConnectionId(), messageData);
+                }
                 handleProtocolMessage(socket, messageData);
             }
 
         } catch (Exception e) {
-            System.err.println("Client error: " + e.getMessage());
+            EventLog.warn("client.error", "addr", socket.getInetAddress(), "error", e.getMessage());
         } finally {
             disconnectSession(socket);
+            admission.closed(handshaking);
         }
     }
 
     // === TP-style method: handleProtocolMessage(SSLSocket, byte[]) ===
     public void handleProtocolMessage(SSLSocket socket, byte[] messageData) throws Exception {
-        ChatMessage msg = messageParser.parse(messageData);
         ClientSession session = socketSessions.get(socket);
 
         if (session == null) {
             // Should not happen, but just in case
-            session = new ClientSession(socket, socket.getOutputStream());
+            session = new ClientSession(socket, socket.getOutputStream(), rateLimitPolicy.newLimiter(),
+                    writerExecutor, config.getMaxRoomFramesPerSession(), config.getMaxOutboundBytesPerSession());
             socketSessions.put(socket, session);
         }
 
+        // Rate limits are checked before the body is decoded, so a flood costs almost nothing.
+        // Chunks of an open transfer are paced by its credit window instead.
+        MessageType type = messageParser.peekType(messageData);
+        if (type == null) {
+            // Would fail to parse anyway; refuse it before it can dodge the per-type limits
+            throw new IOException("Malformed frame: no message type");
+        }
+        boolean paced = type == MessageType.TRANSFER_CHUNK && !session.getTransfers().isEmpty();
+        if (!paced && !allowInbound(session, type, messageData.length)) {
+            return;
+        }
+
+        ChatMessage msg = messageParser.parse(messageData);
+        // Only chunks of a transfer this session has open are paced; charge any other
+        if (paced && !session.getTransfers().containsKey(msg.getMessageId())
+                && !allowInbound(session, type, messageData.length)) {
+            return;
+        }
         handleProtocolMessage(session, msg);
     }
 
+    private boolean allowInbound(ClientSession session, MessageType type, int bytes) throws IOException {
+        if (session.allowInbound(type, bytes)) {
+            return true;
+        }
+        EventLog.debug("ratelimit.rejected", "type", type);
+        if (rateLimitPolicy.getAction() == RateLimitPolicy.Action.REJECT) {
+            sendError(session, "Rate limit exceeded for " + type);
+        }
+        return false;
+    }
+
     // Internal routing based on MessageType
     private void handleProtocolMessage(ClientSession session, ChatMessage msg) {
+        boolean routed = true;
         try {
+            if (isDuplicate(session, msg)) {
+                // Already routed once: acknowledge so the client stops retrying, but do not fan out again
+                ChatMessage ack = new ChatMessage(MessageType.MESSAGE_ACK, "server", session.getUsername(),
+                        null, "DUPLICATE", System.currentTimeMillis());
+                ack.setMessageId(msg.getMessageId());
+                session.send(ack);
+                return;
+            }
+
             switch (msg.getType()) {
                 case LOGIN_REQUEST:
                     processLogin(msg, session);
@@ -102,16 +481,59 @@ public class SecureChatServer {
                     joinRoom(msg, session);
                     break;
                 case TEXT_MESSAGE:
-                    broadcastToRoom(msg);
+                    routed = broadcastToRoom(msg);
                     break;
                 case PRIVATE_MESSAGE:
-                    sendPrivateMessage(msg, session);
+                    routed = sendPrivateMessage(msg, session);
+                    break;
+                case SEARCH_REQUEST:
+                    searchRoom(msg, session);
+                    break;
+                case TRANSFER_START:
+                    startTransfer(msg, session);
+                    break;
+                case TRANSFER_CHUNK:
+                    relayChunk(msg, session);
+                    break;
+                case TRANSFER_END:
+                    endTransfer(msg, session);
                     break;
+                case PING:
+                    session.send(new ChatMessage(MessageType.PONG, "server", null, null, null,
+                            System.currentTimeMillis()));
+                    break;
+                case PONG:
+                    break; // activity already recorded by the reader
                 default:
                     sendError(session, "Unsupported message type: " + msg.getType());
             }
         } catch (Exception e) {
-            System.err.println("Error handling message: " + e.getMessage());
+            routed = false;
+            EventLog.error("message.failed", "type", msg.getType(), "error", e.getMessage());
+        } finally {
+            // A retry of a message that went nowhere must be routed, not acknowledged as a duplicate
+            if (!routed) {
+                forgetMessageId(session, msg);
+            }
+        }
+    }
+
+    private boolean isDuplicate(ClientSession session, ChatMessage msg) {
+        if (msg.getMessageId() == 0 || session.getUsername() == null) {
+            return false;
+        }
+        if (msg.getType() != MessageType.TEXT_MESSAGE && msg.getType() != MessageType.PRIVATE_MESSAGE) {
+            return false;
+        }
+        MessageIdCache cache = dedupCaches.computeIfAbsent(session.getUsername(),
+                k -> new MessageIdCache(dedupCapacity, dedupTtlMillis));
+        return cache.checkAndAdd(msg.getMessageId(), System.currentTimeMillis());
+    }
+
+    private void forgetMessageId(ClientSession session, ChatMessage msg) {
+        MessageIdCache cache = session.getUsername() == null ? null : dedupCaches.get(session.getUsername());
+        if (cache != null && msg.getMessageId() != 0) {
+            cache.remove(msg.getMessageId());
         }
     }
 
@@ -139,7 +561,21 @@ public class SecureChatServer {
         );
         session.send(response);
 
-        System.out.println("User logged in: " + username);
+        EventLog.info("user.login", "user", username);
+
+        // Backlog goes out on this user's own thread, in one flush. Private messages keep
+        // being queued until it is out, so none is stranded and none overtakes it.
+        try {
+            do {
+                List<ChatMessage> backlog = offlineStore.drain(username);
+                if (!backlog.isEmpty()) {
+                    session.sendBatch(backlog);
+                }
+            } while (!offlineStore.finishDrain(username));
+        } catch (Exception e) {
+            EventLog.error("offline.delivery_failed", "user", username, "error", e.getMessage());
+            offlineStore.markOnline(username);
+        }
     }
 
     private void joinRoom(ChatMessage message, ClientSession session) throws IOException {
@@ -155,50 +591,197 @@ public class SecureChatServer {
             return;
         }
 
-        ChatRoom room = chatRooms.computeIfAbsent(roomId, ChatRoom::new);
+        ChatRoom room = chatRooms.computeIfAbsent(roomId, this::newRoom);
         room.join(session);
+        recordPresence(room, username, true);
 
-        ChatMessage info = new ChatMessage(
-                MessageType.TEXT_MESSAGE,
+        EventLog.info("room.join", "user", username, "room", roomId);
+    }
+
+    // broadcastToRoom(TextMessage message) 
+    private boolean broadcastToRoom(ChatMessage message) throws IOException {
+        String roomId = message.getRoomId();
+        ChatRoom room = chatRooms.get(roomId);
+        if (room == null) {
+            return false;
+        }
+        // Serialize once; each recipient only queues the shared frame
+        byte[] frame = MessageSerializer.serialize(message);
+        for (ClientSession s : room.getParticipants()) {
+            s.sendFrame(message.getType(), frame);
+        }
+
+        // Only chat text is searchable; presence digests also come through here
+        RoomSearchIndex index = room.getSearchIndex();
+        if (index != null && message.getType() == MessageType.TEXT_MESSAGE) {
+            indexExecutor.execute(() -> index.add(message.getSender(), message.getContent(), message.getTimestamp()));
+        }
+        return true;
+    }
+
+    private ChatRoom newRoom(String roomId) {
+        ChatRoom room = new ChatRoom(roomId, presenceMaxRoomSize);
+        if (config.isSearchEnabled()) {
+            room.setSearchIndex(new RoomSearchIndex(config.getSearchRoomMaxMessages(), config.getSearchRoomMaxBytes()));
+        }
+        return room;
+    }
+
+    // One SEARCH_RESPONSE per hit, newest first, then the summary with the next-page cursor
+    private void searchRoom(ChatMessage message, ClientSession session) throws IOException {
+        String username = session.getUsername();
+        if (username == null) {
+            sendError(session, "Must login before searching");
+            return;
+        }
+        String roomId = message.getRoomId();
+        ChatRoom room = roomId == null ? null : chatRooms.get(roomId);
+        if (room == null || !room.getParticipants().contains(session)) {
+            sendError(session, "Join the room before searching it");
+            return;
+        }
+        RoomSearchIndex index = room.getSearchIndex();
+        if (index == null) {
+            sendError(session, "Search is disabled");
+            return;
+        }
+
+        RoomSearchIndex.Result result = index.search(message.getContent(), message.getMessageId(),
+                config.getSearchPageSize());
+        List<ChatMessage> batch = new ArrayList<>(result.hits.size() + 1);
+        for (RoomSearchIndex.Hit hit : result.hits) {
+            ChatMessage m = new ChatMessage(MessageType.SEARCH_RESPONSE, hit.sender, username, roomId,
+                    hit.content, hit.timestamp);
+            m.setMessageId(hit.seq);
+            batch.add(m);
+        }
+        batch.add(new ChatMessage(MessageType.SEARCH_RESPONSE, "server", username, roomId,
+                "hits=" + result.hits.size() + ";next=" + result.next, System.currentTimeMillis()));
+        session.sendBatch(batch);
+        metrics.increment("search.queries");
+    }
+
+    // Queue a join/leave; the first event of a window schedules the digest
+    private void recordPresence(ChatRoom room, String username, boolean joined) {
+        boolean first = joined ? room.recordJoin(username) : room.recordLeave(username);
+        if (first) {
+            timer.newTimeout(t -> housekeepingExecutor.execute(() -> flushPresence(room)),
+                    presenceWindowMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flushPresence(ChatRoom room) {
+        String digest = room.drainPresence();
+        if (digest == null) {
+            return;
+        }
+        ChatMessage presence = new ChatMessage(
+                MessageType.PRESENCE_UPDATE,
                 "server",
                 null,
-                roomId,
-                username + " joined the room.",
+                room.getName(),
+                digest,
                 System.currentTimeMillis()
         );
-        broadcastToRoom(info);
-
-        System.out.println("User " + username + " joined room " + roomId);
+        try {
+            broadcastToRoom(presence);
+        } catch (IOException e) {
+            EventLog.error("presence.failed", "room", room.getName(), "error", e.getMessage());
+        }
     }
+    // Recipients are fixed at START: the other members of the room, or one online user
+    private void startTransfer(ChatMessage message, ClientSession session) throws IOException {
+        String username = session.getUsername();
+        if (username == null) {
+            sendError(session, "Must login before sending a transfer");
+            return;
+        }
+        long clientId = message.getMessageId();
+        Map<Long, TransferRelay> transfers = session.getTransfers();
+        if (clientId == 0 || transfers.containsKey(clientId)) {
+            rejectTransfer(session, clientId, "invalid transfer id");
+            return;
+        }
+        if (transfers.size() >= config.getTransferMaxPerSession()) {
+            rejectTransfer(session, clientId, "too many transfers in progress");
+            return;
+        }
 
-    // broadcastToRoom(TextMessage message) 
-    private void broadcastToRoom(ChatMessage message) throws IOException {
         String roomId = message.getRoomId();
-        ChatRoom room = chatRooms.get(roomId);
-        if (room == null) {
+        List<ClientSession> recipients;
+        if (roomId != null && !roomId.isEmpty()) {
+            ChatRoom room = chatRooms.get(roomId);
+            if (room == null || !room.getParticipants().contains(session)) {
+                rejectTransfer(session, clientId, "join the room first");
+                return;
+            }
+            recipients = new ArrayList<>(room.getParticipants());
+            recipients.remove(session);
+        } else {
+            roomId = null;
+            ClientSession target = activeSessions.get(message.getRecipient());
+            if (target == null) {
+                rejectTransfer(session, clientId, "recipient is not online");
+                return;
+            }
+            recipients = List.of(target);
+        }
+        if (recipients.isEmpty()) {
+            rejectTransfer(session, clientId, "no recipients");
             return;
         }
-        for (ClientSession s : room.getParticipants()) {
-            s.send(message);
+
+        TransferRelay relay = new TransferRelay(clientId, session, roomId, recipients,
+                config.getTransferWindowChunks());
+        transfers.put(clientId, relay);
+        relay.start(message);
+        metrics.increment("transfer.started");
+        EventLog.debug("transfer.started", "user", username, "id", relay.getId());
+    }
+
+    private void relayChunk(ChatMessage message, ClientSession session) {
+        TransferRelay relay = session.getTransfers().get(message.getMessageId());
+        if (relay == null) {
+            return; // already aborted, the sender has been told
+        }
+        if (!relay.chunk(message.getContent())) {
+            session.getTransfers().remove(message.getMessageId());
+            relay.abort("chunk sent without credit");
+            metrics.increment("transfer.aborted");
         }
     }
-    private void sendPrivateMessage(ChatMessage message, ClientSession fromSession) throws IOException {
+
+    private void endTransfer(ChatMessage message, ClientSession session) {
+        TransferRelay relay = session.getTransfers().remove(message.getMessageId());
+        if (relay == null) {
+            return;
+        }
+        String content = message.getContent();
+        boolean aborted = content != null && content.startsWith("aborted");
+        relay.end(aborted ? content : "done");
+        metrics.increment(aborted ? "transfer.aborted" : "transfer.completed");
+        metrics.add("transfer.bytes", relay.getBytes());
+    }
+
+    private void rejectTransfer(ClientSession session, long clientId, String reason) throws IOException {
+        ChatMessage msg = new ChatMessage(MessageType.TRANSFER_END, "server", session.getUsername(), null,
+                "rejected: " + reason, System.currentTimeMillis());
+        msg.setMessageId(clientId);
+        session.send(msg);
+        metrics.increment("transfer.rejected");
+    }
+
+    private boolean sendPrivateMessage(ChatMessage message, ClientSession fromSession) throws IOException {
         String fromUser = fromSession.getUsername();
         if (fromUser == null) {
             sendError(fromSession, "Must login before sending private messages");
-            return;
+            return false;
         }
 
         String toUser = message.getRecipient();
         if (toUser == null || toUser.isEmpty()) {
             sendError(fromSession, "Missing recipient in PRIVATE_MESSAGE");
-            return;
-        }
-
-        ClientSession target = activeSessions.get(toUser);
-        if (target == null) {
-            sendError(fromSession, "User not found: " + toUser);
-            return;
+            return false;
         }
 
         ChatMessage forwarded = new ChatMessage(
@@ -209,7 +792,32 @@ public class SecureChatServer {
                 message.getContent(),
                 System.currentTimeMillis()
         );
-        target.send(forwarded);
+        forwarded.setMessageId(message.getMessageId());
+
+        // The store decides online vs offline under its lock, so this cannot race a login
+        OfflineMessageStore.Delivery delivery;
+        try {
+            delivery = offlineStore.storeIfOffline(toUser, forwarded);
+            if (delivery == OfflineMessageStore.Delivery.LIVE) {
+                // The recipient may log out between the check and this lookup; then the
+                // message waits for the next login like any other
+                ClientSession target = activeSessions.get(toUser);
+                if (target != null) {
+                    target.send(forwarded);
+                    return true;
+                }
+                delivery = offlineStore.store(toUser, forwarded)
+                        ? OfflineMessageStore.Delivery.QUEUED : OfflineMessageStore.Delivery.REFUSED;
+            }
+        } catch (IOException e) {
+            EventLog.error("offline.store_failed", "user", toUser, "error", e.getMessage());
+            delivery = OfflineMessageStore.Delivery.REFUSED;
+        }
+        if (delivery == OfflineMessageStore.Delivery.REFUSED) {
+            sendError(fromSession, "Could not queue message for offline user: " + toUser);
+            return false;
+        }
+        return true;
     }
 
     private void sendError(ClientSession session, String errorText) throws IOException {
@@ -236,19 +844,70 @@ public class SecureChatServer {
         }
 
         int bodyLength = ByteBuffer.wrap(header).getInt();
-        if (bodyLength < 0 || bodyLength > 1_000_000) {
+        if (bodyLength < 0 || bodyLength > config.getMaxFrameBytes()) {
             throw new IOException("Invalid body length: " + bodyLength);
         }
 
-        byte[] body = in.readNBytes(bodyLength);
-        if (body.length < bodyLength) {
+        // Read the body straight into the frame, after its header
+        byte[] frame = new byte[4 + bodyLength];
+        System.arraycopy(header, 0, frame, 0, 4);
+        if (in.readNBytes(frame, 4, bodyLength) < bodyLength) {
             throw new IOException("Incomplete body");
         }
+        return frame;
+    }
+
+    // Runs on the timer wheel: ping quiet sessions, disconnect dead ones, otherwise re-arm
+    private void scheduleIdleCheck(ClientSession session, long delayMillis) {
+        session.setIdleTimeout(timer.newTimeout(t -> checkIdle(session), delayMillis, TimeUnit.MILLISECONDS));
+    }
+
+    private void checkIdle(ClientSession session) {
+        if (!socketSessions.containsKey(session.getSocket())) {
+            return; // already gone
+        }
+        long now = System.nanoTime();
+        long idleMillis = TimeUnit.NANOSECONDS.toMillis(now - session.getLastReadNanos());
 
-        return ByteBuffer.allocate(4 + bodyLength)
-                .putInt(bodyLength)
-                .put(body)
-                .array();
+        if (idleMillis >= idleTimeoutMillis) {
+            EventLog.info("session.idle_timeout", "user", session.getUsername(),
+                    "addr", session.getSocket().getInetAddress());
+            housekeepingExecutor.execute(() -> disconnectSession(session.getSocket()));
+            return;
+        }
+        // Closing the socket fails the blocked write and frees its writer thread
+        long blockedMillis = session.getWriteBlockedMillis();
+        if (blockedMillis >= writeTimeoutMillis) {
+            EventLog.warn("session.write_timeout", "user", session.getUsername(), "millis", blockedMillis);
+            metrics.increment("session.write_timeouts");
+            housekeepingExecutor.execute(() -> {
+                session.close();
+                disconnectSession(session.getSocket());
+            });
+            return;
+        }
+
+        long next;
+        if (idleMillis >= pingIntervalMillis) {
+            // Only one PING per quiet period
+            if (session.getLastPingNanos() - session.getLastReadNanos() <= 0) {
+                session.setLastPingNanos(now);
+                housekeepingExecutor.execute(() -> sendPing(session));
+            }
+            next = idleTimeoutMillis - idleMillis;
+        } else {
+            next = pingIntervalMillis - idleMillis;
+        }
+        scheduleIdleCheck(session, Math.min(next, writeTimeoutMillis - blockedMillis));
+    }
+
+    private void sendPing(ClientSession session) {
+        try {
+            session.send(new ChatMessage(MessageType.PING, "server", null, null, null,
+                    System.currentTimeMillis()));
+        } catch (IOException e) {
+            disconnectSession(session.getSocket());
+        }
     }
 
     private void disconnectSession(SSLSocket socket) {
@@ -257,22 +916,70 @@ public class SecureChatServer {
         } catch (IOException ignored) {}
 
         ClientSession removed = socketSessions.remove(socket);
-        if (removed != null && removed.getUsername() != null) {
-            activeSessions.remove(removed.getUsername());
+        if (removed == null) {
+            return;
+        }
+        removed.close();
+
+        for (TransferRelay relay : removed.getTransfers().values()) {
+            relay.abort("sender disconnected");
+            metrics.increment("transfer.aborted");
+        }
+        removed.getTransfers().clear();
+
+        if (trafficRecorder != null) {
+            trafficRecorder.recordClose(removed.getConnectionId());
+        }
+        HashedWheelTimer.Timeout idle = removed.getIdleTimeout();
+        if (idle != null) {
+            idle.cancel();
+        }
+        for (ChatRoom room : chatRooms.values()) {
+            if (room.leave(removed) && removed.getUsername() != null) {
+                recordPresence(room, removed.getUsername(), false);
+            }
+        }
+        String username = removed.getUsername();
+        if (username != null && activeSessions.get(username) == removed) {
+            // Offline first: from here on private messages for this user are queued
+            offlineStore.markOffline(username);
+            activeSessions.remove(username, removed);
+
+            // Keep the dedup cache through a reconnect, drop it once its entries would have expired
+            timer.newTimeout(t -> {
+                if (!activeSessions.containsKey(username)) {
+                    dedupCaches.remove(username);
+                }
+            }, dedupTtlMillis, TimeUnit.MILLISECONDS);
         }
     }
 
     public static void main(String[] args) throws Exception {
-        if (args.length != 3) {
-            System.out.println("Usage: java SecureChatServer <port> <keystorePath> <password>");
+        List<String> positional = new ArrayList<>();
+        ChatConfig config;
+        try {
+            config = ChatConfig.fromArgs(args, positional);
+
+            // Positional form kept for compatibility: <port> <keystorePath> <password> [logFile]
+            if (positional.size() >= 3 && positional.size() <= 4) {
+                config.set("server.port", positional.get(0));
+                config.set("keystore.path", positional.get(1));
+                config.set("keystore.password", positional.get(2));
+                if (positional.size() == 4) {
+                    config.set("log.file", positional.get(3));
+                }
+            } else if (!positional.isEmpty() || config.getKeystorePassword() == null) {
+                System.out.println("Usage: java SecureChatServer <port> <keystorePath> <password> [logFile] [--key=value ...]");
+                System.out.println("   or: java SecureChatServer --config=server.properties [--key=value ...]");
+                return;
+            }
+            config.validate();
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
             return;
         }
 
-        int port = Integer.parseInt(args[0]);
-        String keystorePath = args[1];
-        String password = args[2];
-
-        SecureChatServer server = new SecureChatServer(port, keystorePath, password);
+        SecureChatServer server = new SecureChatServer(config);
         server.start();
     }
 }
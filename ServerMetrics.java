@@ -0,0 +1,35 @@
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Named server counters. Increments are striped (LongAdder), so hot paths can count
+ * without contending with each other. A snapshot is logged periodically by the server.
+ */
+public class ServerMetrics {
+
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+    public void increment(String name) {
+        add(name, 1);
+    }
+
+    public void add(String name, long delta) {
+        counters.computeIfAbsent(name, k -> new LongAdder()).add(delta);
+    }
+
+    public long get(String name) {
+        LongAdder counter = counters.get(name);
+        return counter == null ? 0 : counter.sum();
+    }
+
+    // Sorted copy of every counter
+    public Map<String, Long> snapshot() {
+        Map<String, Long> copy = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> e : counters.entrySet()) {
+            copy.put(e.getKey(), e.getValue().sum());
+        }
+        return copy;
+    }
+}
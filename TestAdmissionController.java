@@ -0,0 +1,54 @@
+public class TestAdmissionController {
+    public static void main(String[] args) {
+
+        // 1) Session limit: the third connection is refused until one closes
+        AdmissionController ac = new AdmissionController(2, 0, 0, 0, 1000);
+        System.out.println("First:       " + ac.tryAdmit() + " (expected null)");
+        ac.handshakeDone();
+        System.out.println("Second:      " + ac.tryAdmit() + " (expected null)");
+        ac.handshakeDone();
+        System.out.println("Third:       " + ac.tryAdmit() + " (expected SESSIONS)");
+        ac.closed(false);
+        System.out.println("After close: " + ac.tryAdmit() + " (expected null)");
+        System.out.println("Sessions:    " + ac.getSessions() + " (expected 2)");
+
+        // 2) Pending handshakes: done or closed mid-handshake both free the slot
+        ac = new AdmissionController(0, 2, 0, 0, 1000);
+        ac.tryAdmit();
+        ac.tryAdmit();
+        System.out.println("Handshakes:  " + ac.tryAdmit() + " (expected HANDSHAKES)");
+        ac.handshakeDone();
+        System.out.println("One done:    " + ac.tryAdmit() + " (expected null)");
+        ac.closed(true);
+        System.out.println("One failed:  " + ac.tryAdmit() + " (expected null)");
+        System.out.println("Pending:     " + ac.getPendingHandshakes() + " (expected 2)");
+
+        // 3) Sampled gauges
+        ac = new AdmissionController(0, 0, 90, 1000, 1000);
+        ac.update(95, 0);
+        System.out.println("Heap:        " + ac.tryAdmit() + " (expected HEAP)");
+        ac.update(50, 1000);
+        System.out.println("Outbound:    " + ac.tryAdmit() + " (expected OUTBOUND)");
+        ac.update(50, 10);
+        System.out.println("Recovered:   " + ac.tryAdmit() + " (expected null)");
+
+        // 4) Nothing is counted for refused connections
+        System.out.println("Counted:     " + ac.getSessions() + "/" + ac.getPendingHandshakes() + " (expected 1/1)");
+
+        // 5) Retry delays are spread over [base, 2 * base)
+        long min = Long.MAX_VALUE, max = 0;
+        for (int i = 0; i < 1000; i++) {
+            long d = ac.retryAfterMillis();
+            min = Math.min(min, d);
+            max = Math.max(max, d);
+        }
+        System.out.println("Retry range: " + (min >= 1000 && max < 2000 && max - min > 500) + " (expected true)");
+
+        // 6) The delay travels in the busy notice's text, and only a busy notice is parsed for it
+        String notice = AdmissionController.busyNotice(AdmissionController.Reason.HEAP, 1500);
+        System.out.println("Notice:      " + notice + " (expected Server busy (heap), retry after 1500 ms)");
+        System.out.println("Parsed:      " + AdmissionController.parseRetryAfter(notice) + " (expected 1500)");
+        System.out.println("Other error: " + AdmissionController.parseRetryAfter("Rate limit exceeded for TEXT_MESSAGE")
+                + " (expected -1)");
+    }
+}
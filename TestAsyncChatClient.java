@@ -0,0 +1,180 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import javax.net.ssl.*;
+
+public class TestAsyncChatClient {
+    public static void main(String[] args) throws Exception {
+        SSLServerSocket server = startServer();
+        int port = server.getLocalPort();
+
+        // The test server speaks TLS 1.2 only: JSSE gives a resumed TLS 1.3 session a new ID,
+        // a resumed TLS 1.2 session keeps it, so section 4 can see the resumption
+        ChatConfig compatible = ChatConfig.fromArgs(new String[] {"--tls.profile=compatible"}, null).validate();
+        AsyncChatClient client = new AsyncChatClient("localhost", port, true, compatible, 10_000);
+        client.setReconnectDelay(50, 200);
+        List<ChatMessage> texts = Collections.synchronizedList(new ArrayList<>());
+        List<ChatMessage> all = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch received = new CountDownLatch(2);
+        client.on(MessageType.TEXT_MESSAGE, texts::add);
+        client.onAny(msg -> {
+            all.add(msg);
+            received.countDown();
+        });
+
+        // connect() blocks in the handshake, so the server side accepts in the background
+        CompletableFuture<SSLSocket> accepted = accept(server);
+        client.connect();
+        SSLSocket peer = accepted.get(5, TimeUnit.SECONDS);
+        InputStream in = peer.getInputStream();
+        OutputStream out = peer.getOutputStream();
+
+        // 1) Frames queued together go out in few flushes; every future completes once written
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        futures.add(client.login("alice"));
+        futures.add(client.join("room1"));
+        AsyncChatClient.SendFuture firstText = client.sendText("message 0");
+        futures.add(firstText);
+        for (int i = 1; i < 100; i++) {
+            futures.add(client.sendText("message " + i));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get(5, TimeUnit.SECONDS);
+        System.out.println("Futures done:     " + futures.stream().filter(f -> !f.isCompletedExceptionally()).count()
+                + " (expected 102)");
+
+        // One TLS record per flush, and the server reads at most one record per read()
+        byte[] buf = new byte[64 * 1024];
+        int reads = 0;
+        List<ChatMessage> sent = new ArrayList<>();
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        while (sent.size() < 102) {
+            int n = in.read(buf);
+            reads++;
+            stream.write(buf, 0, n);
+            sent = frames(stream.toByteArray());
+        }
+        System.out.println("Reads for 102:    " + (reads <= 20) + " (expected true, was " + reads + ")");
+        System.out.println("Order kept:       " + sent.get(0).getType() + ", " + sent.get(1).getType() + ", "
+                + sent.get(101).getContent() + " (expected LOGIN_REQUEST, JOIN_ROOM_REQUEST, message 99)");
+        System.out.println("IDs assigned:     " + (sent.get(2).getMessageId() != 0
+                && sent.get(3).getMessageId() == sent.get(2).getMessageId() + 1) + " (expected true)");
+        System.out.println("ID returned:      " + (firstText.getMessageId() == sent.get(2).getMessageId())
+                + " (expected true)");
+
+        // 2) Incoming messages go to the listeners of their type, and to onAny
+        out.write(MessageSerializer.serialize(new ChatMessage(MessageType.TEXT_MESSAGE, "bob", null, "room1",
+                "hi", System.currentTimeMillis())));
+        out.write(MessageSerializer.serialize(new ChatMessage(MessageType.PRIVATE_MESSAGE, "bob", "alice", null,
+                "psst", System.currentTimeMillis())));
+        out.flush();
+        received.await(5, TimeUnit.SECONDS);
+        System.out.println("TEXT listener:    " + texts.size() + " (expected 1)");
+        System.out.println("Any listener:     " + all.size() + " (expected 2)");
+
+        // 3) PING is answered with PONG
+        out.write(MessageSerializer.serialize(new ChatMessage(MessageType.PING, "server", null, null, null,
+                System.currentTimeMillis())));
+        out.flush();
+        System.out.println("PING answer:      " + SSLClient.readMessage(in, 1 << 20).getType() + " (expected PONG)");
+
+        // 4) After a lost connection the client reconnects on the same TLS session and
+        //    replays login and join first
+        accepted = accept(server);
+        peer.close();
+        SSLSocket second = accepted.get(5, TimeUnit.SECONDS);
+        System.out.println("Session resumed:  " + Arrays.equals(peer.getSession().getId(), second.getSession().getId())
+                + " (expected true)");
+        InputStream in2 = second.getInputStream();
+        System.out.println("Replayed:         " + SSLClient.readMessage(in2, 1 << 20).getType() + ", "
+                + SSLClient.readMessage(in2, 1 << 20).getRoomId() + " (expected LOGIN_REQUEST, room1)");
+        CompletableFuture<Void> afterReconnect = client.sendText("back");
+        afterReconnect.get(5, TimeUnit.SECONDS);
+        System.out.println("After reconnect:  " + SSLClient.readMessage(in2, 1 << 20).getContent() + " (expected back)");
+
+        // A resend with the first attempt's ID carries that ID again
+        client.sendText(firstText.getMessageId(), "message 0").get(5, TimeUnit.SECONDS);
+        System.out.println("Resent same ID:   " + (SSLClient.readMessage(in2, 1 << 20).getMessageId()
+                == firstText.getMessageId()) + " (expected true)");
+
+        // 5) Failure paths: a closed client fails queued and new sends
+        client.close();
+        CompletableFuture<Void> late = client.sendText("too late");
+        System.out.println("Send after close: " + late.isCompletedExceptionally() + " (expected true)");
+
+        AsyncChatClient tiny = new AsyncChatClient("localhost", port, true, new ChatConfig(), 1);
+        CompletableFuture<Void> notConnected = tiny.sendText("x");
+        System.out.println("Not connected:    " + notConnected.isCompletedExceptionally() + " (expected true)");
+
+        second.close();
+        server.close();
+    }
+
+    private static CompletableFuture<SSLSocket> accept(SSLServerSocket server) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                SSLSocket socket = (SSLSocket) server.accept();
+                socket.startHandshake();
+                return socket;
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    // Messages in a byte stream of [length:int][body]
+    private static List<ChatMessage> frames(byte[] data) throws Exception {
+        List<ChatMessage> messages = new ArrayList<>();
+        ByteArrayInputStream in = new ByteArrayInputStream(data);
+        while (in.available() >= 4) {
+            in.mark(0);
+            byte[] header = in.readNBytes(4);
+            int length = ((header[0] & 0xFF) << 24) | ((header[1] & 0xFF) << 16)
+                    | ((header[2] & 0xFF) << 8) | (header[3] & 0xFF);
+            if (in.available() < length) {
+                break;
+            }
+            in.reset();
+            messages.add(SSLClient.readMessage(in, 1 << 20));
+        }
+        return messages;
+    }
+
+    // A TLS listener on a free port, with a throwaway EC key made by keytool
+    private static SSLServerSocket startServer() throws Exception {
+        File dir = Files.createTempDirectory("async-client").toFile();
+        File keystore = new File(dir, "test.jks");
+        Process keytool = new ProcessBuilder(new File(System.getProperty("java.home"), "bin/keytool").getPath(),
+                "-genkeypair", "-alias", "test", "-keyalg", "EC", "-groupname", "secp256r1",
+                "-dname", "CN=localhost", "-validity", "2", "-storetype", "JKS",
+                "-keystore", keystore.getPath(), "-storepass", "changeit", "-keypass", "changeit")
+                .redirectErrorStream(true).start();
+        keytool.getInputStream().readAllBytes();
+        keytool.waitFor();
+        keystore.deleteOnExit();
+        dir.deleteOnExit();
+
+        KeyStore ks = KeyStore.getInstance("JKS");
+        try (FileInputStream fis = new FileInputStream(keystore)) {
+            ks.load(fis, "changeit".toCharArray());
+        }
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(ks, "changeit".toCharArray());
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(kmf.getKeyManagers(), null, null);
+        SSLServerSocket server = (SSLServerSocket) context.getServerSocketFactory().createServerSocket(0);
+        server.setEnabledProtocols(new String[] {"TLSv1.2"});
+        return server;
+    }
+}
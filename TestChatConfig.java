@@ -0,0 +1,40 @@
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+public class TestChatConfig {
+    public static void main(String[] args) throws Exception {
+
+        // 1) File values, then command-line overrides
+        File file = File.createTempFile("chat", ".properties");
+        file.deleteOnExit();
+        Files.writeString(file.toPath(), "server.port=9000\nsocket.send.buffer=64k\nlog.level=warn\n");
+
+        List<String> positional = new ArrayList<>();
+        ChatConfig config = ChatConfig.fromArgs(new String[] {
+                "--config=" + file.getPath(), "--server.port=9001", "localhost"
+        }, positional).validate();
+
+        System.out.println("Port:        " + config.getPort() + " (expected 9001)");
+        System.out.println("Send buffer: " + config.getSendBufferBytes() + " (expected 65536)");
+        System.out.println("Log level:   " + config.getLogLevel() + " (expected WARN)");
+        System.out.println("Positional:  " + positional + " (expected [localhost])");
+
+        // 2) Errors are reported, not ignored
+        String[][] bad = {
+                {"--socket.backlgo=10"},
+                {"--socket.tcp.nodelay=yes"},
+                {"--frame.max.bytes=2m"},
+                {"--heartbeat.ping.millis=5000", "--heartbeat.idle.millis=1000"},
+        };
+        for (String[] b : bad) {
+            try {
+                ChatConfig.fromArgs(b, null).validate();
+                System.out.println("Accepted (unexpected): " + String.join(" ", b));
+            } catch (IllegalArgumentException e) {
+                System.out.println("Rejected: " + e.getMessage().replace("\n", " "));
+            }
+        }
+    }
+}
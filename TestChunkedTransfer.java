@@ -0,0 +1,108 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestChunkedTransfer {
+    public static void main(String[] args) throws Exception {
+
+        // 1) Tracked frames: callback after the write, or when the queue is closed
+        List<Runnable> writerTasks = new ArrayList<>();
+        OutboundQueue queue = new OutboundQueue(new ByteArrayOutputStream(), writerTasks::add, () -> {}, 10, 1 << 20);
+        AtomicInteger done = new AtomicInteger();
+        queue.enqueue(OutboundPriority.DIRECT, new byte[10], done::incrementAndGet);
+        queue.enqueue(OutboundPriority.DIRECT, new byte[10], done::incrementAndGet);
+        System.out.println("Done before write: " + done.get() + " (expected 0)");
+        writerTasks.remove(0).run();
+        System.out.println("Done after write:  " + done.get() + " (expected 2)");
+        queue.enqueue(OutboundPriority.DIRECT, new byte[10], done::incrementAndGet);
+        queue.close();
+        System.out.println("Done after close:  " + done.get() + " (expected 3)");
+
+        // 2) The relay stops a sender that ignores its credit window
+        List<Runnable> stalled = new ArrayList<>();
+        ByteArrayOutputStream senderOut = new ByteArrayOutputStream();
+        ClientSession sender = new ClientSession(null, senderOut);
+        sender.setUsername("alice");
+        ClientSession slowRecipient = new ClientSession(null, new ByteArrayOutputStream(), null, stalled::add, 100,
+                1 << 20);
+        TransferRelay relay = new TransferRelay(7, sender, null, List.of(slowRecipient), 4);
+        relay.start(new ChatMessage(MessageType.TRANSFER_START, "alice", "bob", null, "name=a;size=5", 0));
+        int accepted = 0;
+        for (int i = 0; i < 5; i++) {
+            if (relay.chunk("QUJD")) accepted++;
+        }
+        System.out.println("Chunks accepted:   " + accepted + " (expected 4)");
+        stalled.get(0).run();   // the recipient catches up: credit comes back in batches of 2
+        System.out.println("Credit messages:   " + countFrames(senderOut.toByteArray()) + " (expected 3)");
+
+        // 3) Loopback: chunks flow through credit, bytes arrive intact, in-flight stays bounded
+        byte[] payload = new byte[1_000_000];
+        new Random(42).nextBytes(payload);
+        BlockingQueue<ChatMessage> wire = new LinkedBlockingQueue<>();
+        OutgoingTransfer out = new OutgoingTransfer(wire::add, "alice", "bob", null, 16 * 1024);
+
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        IncomingTransfers in = new IncomingTransfers((start, name, size) -> received);
+
+        Thread server = new Thread(() -> {
+            try {
+                int window = 4;
+                while (true) {
+                    ChatMessage msg = wire.take();
+                    // Chunks not credited yet: this one and those behind it (START and END need no credit)
+                    if (msg.getType() == MessageType.TRANSFER_CHUNK) {
+                        int waiting = 1;
+                        for (ChatMessage queued : wire) {
+                            if (queued.getType() == MessageType.TRANSFER_CHUNK) waiting++;
+                        }
+                        maxInFlight.accumulateAndGet(waiting, Math::max);
+                    }
+                    in.handle(msg);
+                    if (msg.getType() == MessageType.TRANSFER_START) {
+                        out.credit(window);
+                    } else if (msg.getType() == MessageType.TRANSFER_CHUNK) {
+                        out.credit(1);
+                    } else {
+                        return;
+                    }
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+        server.start();
+        long sent = out.run("random.bin", payload.length, new ByteArrayInputStream(payload));
+        server.join();
+        System.out.println("Bytes sent:        " + sent + " (expected 1000000)");
+        System.out.println("Bytes intact:      " + Arrays.equals(payload, received.toByteArray()) + " (expected true)");
+        System.out.println("In flight <= 4:    " + (maxInFlight.get() <= 4) + " (expected true)");
+
+        // 4) A rejection from the server ends run() with the reason
+        OutgoingTransfer rejected = new OutgoingTransfer(msg -> {}, "alice", "nobody", null, 1024);
+        rejected.abort("rejected: recipient is not online");
+        try {
+            rejected.run("x", 10, new ByteArrayInputStream(new byte[10]));
+            System.out.println("Rejected: no error (expected an error)");
+        } catch (Exception e) {
+            System.out.println("Rejected:          " + e.getMessage()
+                    + " (expected Transfer rejected: recipient is not online)");
+        }
+    }
+
+    // Frames in a byte stream of [length:int][body]
+    private static int countFrames(byte[] data) {
+        int count = 0;
+        for (int pos = 0; pos + 4 <= data.length; count++) {
+            pos += 4 + (((data[pos] & 0xFF) << 24) | ((data[pos + 1] & 0xFF) << 16)
+                    | ((data[pos + 2] & 0xFF) << 8) | (data[pos + 3] & 0xFF));
+        }
+        return count;
+    }
+}
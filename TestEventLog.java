@@ -0,0 +1,42 @@
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+
+public class TestEventLog {
+    public static void main(String[] args) throws Exception {
+
+        File dir = Files.createTempDirectory("eventlog").toFile();
+        EventLog log = EventLog.get();
+
+        // 1) Levels and sampling
+        File logFile = new File(dir, "server.log");
+        log.setOutput(logFile, 1_000_000, 3);
+        log.setSampling(EventLog.Level.WARN, 10);
+
+        for (int i = 0; i < 100; i++) {
+            EventLog.info("test.event", "i", i, "user", "alice");
+        }
+        for (int i = 0; i < 100; i++) {
+            EventLog.warn("test.sampled", "i", i);
+        }
+        EventLog.debug("test.debug", "hidden", true);   // below the default INFO level
+        log.flush();
+
+        List<String> lines = Files.readAllLines(logFile.toPath());
+        System.out.println("Lines written: " + lines.size() + " (expected 110)");
+        System.out.println("First line:    " + lines.get(0));
+
+        // 2) Rotation: small files, at most 3 of them
+        File rotated = new File(dir, "rotated.log");
+        log.setOutput(rotated, 2_000, 3);
+        for (int i = 0; i < 500; i++) {
+            EventLog.info("test.rotate", "i", i);
+        }
+        log.flush();
+
+        System.out.println("rotated.log.1 exists: " + new File(dir, "rotated.log.1").exists() + " (expected true)");
+        System.out.println("rotated.log.2 exists: " + new File(dir, "rotated.log.2").exists() + " (expected true)");
+        System.out.println("rotated.log.3 exists: " + new File(dir, "rotated.log.3").exists() + " (expected false)");
+        System.out.println("Dropped: " + log.getDropped() + " (expected 0)");
+    }
+}
@@ -0,0 +1,65 @@
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestHashedWheelTimer {
+    public static void main(String[] args) throws Exception {
+
+        HashedWheelTimer timer = new HashedWheelTimer(10, TimeUnit.MILLISECONDS, 8);
+        timer.start();
+
+        // 1) A timeout fires, not before its delay
+        CountDownLatch fired = new CountDownLatch(1);
+        long start = System.nanoTime();
+        timer.newTimeout(t -> fired.countDown(), 50, TimeUnit.MILLISECONDS);
+        fired.await(2, TimeUnit.SECONDS);
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        System.out.println("Fired after " + elapsed + " ms (expected >= 50)");
+
+        // 2) Delay longer than one wheel turn (8 x 10 ms)
+        CountDownLatch longFired = new CountDownLatch(1);
+        start = System.nanoTime();
+        timer.newTimeout(t -> longFired.countDown(), 250, TimeUnit.MILLISECONDS);
+        longFired.await(2, TimeUnit.SECONDS);
+        elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        System.out.println("Multi-round fired after " + elapsed + " ms (expected >= 250)");
+
+        // 3) Cancelled timeouts never run
+        AtomicInteger runs = new AtomicInteger();
+        for (int i = 0; i < 10_000; i++) {
+            HashedWheelTimer.Timeout t = timer.newTimeout(x -> runs.incrementAndGet(), 30, TimeUnit.MILLISECONDS);
+            if (i % 2 == 0) {
+                t.cancel();
+            }
+        }
+        Thread.sleep(200);
+        System.out.println("Ran " + runs.get() + " / 10000 (expected 5000)");
+
+        // 4) A failing task is logged and the wheel keeps going
+        File log = File.createTempFile("timer", ".log");
+        log.deleteOnExit();
+        EventLog.get().setOutput(log, 1 << 20, 1);
+        CountDownLatch after = new CountDownLatch(1);
+        timer.newTimeout(t -> {
+            throw new IllegalStateException("boom");
+        }, 10, TimeUnit.MILLISECONDS);
+        timer.newTimeout(t -> after.countDown(), 30, TimeUnit.MILLISECONDS);
+        System.out.println("Kept going:  " + after.await(2, TimeUnit.SECONDS) + " (expected true)");
+        EventLog.get().flush();
+        String logged = new String(Files.readAllBytes(log.toPath()), StandardCharsets.UTF_8);
+        System.out.println("Logged:      " + (logged.contains("timer.task_failed") && logged.contains("boom"))
+                + " (expected true)");
+
+        // 5) After stop() new timeouts are refused
+        timer.stop();
+        try {
+            timer.newTimeout(t -> {}, 10, TimeUnit.MILLISECONDS);
+            System.out.println("After stop:  accepted (expected IllegalStateException)");
+        } catch (IllegalStateException e) {
+            System.out.println("After stop:  IllegalStateException (expected IllegalStateException)");
+        }
+    }
+}
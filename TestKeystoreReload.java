@@ -0,0 +1,91 @@
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.cert.X509Certificate;
+import javax.net.ssl.SSLSocket;
+
+public class TestKeystoreReload {
+    public static void main(String[] args) throws Exception {
+        File dir = Files.createTempDirectory("keystore-reload").toFile();
+        File first = createKeystore(dir, "first", "changeit");
+        File second = createKeystore(dir, "second", "changeit");
+        File otherPassword = createKeystore(dir, "third", "different");
+        File keystore = new File(dir, "server.jks");
+        Files.copy(first.toPath(), keystore.toPath());
+        File spill = new File(dir, "offline.dat");
+        for (File f : new File[] {first, second, otherPassword, keystore, spill, dir}) {
+            f.deleteOnExit();
+        }
+
+        ChatConfig config = ChatConfig.fromArgs(new String[] {"--server.port=0",
+                "--keystore.path=" + keystore.getPath(), "--keystore.password=changeit",
+                "--keystore.reload.millis=0", "--offline.spill.file=" + spill.getPath()}, null).validate();
+        SecureChatServer server = new SecureChatServer(config);
+        Thread acceptor = new Thread(server::start);
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        // 1) Before the reload: the first certificate
+        SSLSocket old = connect(server.getPort());
+        System.out.println("Before:      " + peerName(old) + " (expected CN=first)");
+        OutputStream oldOut = old.getOutputStream();
+        InputStream oldIn = old.getInputStream();
+        oldOut.write(MessageSerializer.serialize(new ChatMessage(MessageType.LOGIN_REQUEST, "alice", null, null,
+                null, System.currentTimeMillis())));
+        oldOut.flush();
+        System.out.println("Login:       " + SSLClient.readMessage(oldIn, 1 << 20).getContent() + " (expected LOGIN_OK)");
+
+        // 2) A successful reload: new connections get the new certificate, old ones keep working
+        Files.copy(second.toPath(), keystore.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        System.out.println("Reloaded:    " + server.reloadKeystore() + " (expected true)");
+        try (SSLSocket fresh = connect(server.getPort())) {
+            System.out.println("New conn:    " + peerName(fresh) + " (expected CN=second)");
+        }
+        oldOut.write(MessageSerializer.serialize(new ChatMessage(MessageType.PING, "alice", null, null, null,
+                System.currentTimeMillis())));
+        oldOut.flush();
+        System.out.println("Old conn:    " + SSLClient.readMessage(oldIn, 1 << 20).getType() + " (expected PONG)");
+
+        // 3) Failed reloads keep the current context: a corrupt file, then a wrong password
+        Files.write(keystore.toPath(), new byte[] {1, 2, 3});
+        boolean corrupt = server.reloadKeystore();
+        Files.copy(otherPassword.toPath(), keystore.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        boolean wrongPassword = server.reloadKeystore();
+        System.out.println("Bad reloads: " + corrupt + ", " + wrongPassword + " (expected false, false)");
+        try (SSLSocket after = connect(server.getPort())) {
+            System.out.println("After:       " + peerName(after) + " (expected CN=second)");
+        }
+
+        ServerMetrics metrics = server.getMetrics();
+        System.out.println("Metrics:     " + metrics.get("tls.keystore.reloads") + " reload, "
+                + metrics.get("tls.keystore.reload_failures") + " failures (expected 1 reload, 2 failures)");
+        old.close();
+    }
+
+    // A fresh client context each time, so no session is resumed
+    private static SSLSocket connect(int port) throws Exception {
+        SSLSocket socket = (SSLSocket) SSLClient.createSSLContext(true).getSocketFactory()
+                .createSocket("localhost", port);
+        socket.setSoTimeout(10_000);
+        socket.startHandshake();
+        return socket;
+    }
+
+    private static String peerName(SSLSocket socket) throws Exception {
+        return ((X509Certificate) socket.getSession().getPeerCertificates()[0]).getSubjectX500Principal().getName();
+    }
+
+    private static File createKeystore(File dir, String name, String password) throws Exception {
+        File keystore = new File(dir, name + ".jks");
+        Process keytool = new ProcessBuilder(new File(System.getProperty("java.home"), "bin/keytool").getPath(),
+                "-genkeypair", "-alias", name, "-keyalg", "EC", "-groupname", "secp256r1",
+                "-dname", "CN=" + name, "-validity", "2", "-storetype", "JKS",
+                "-keystore", keystore.getPath(), "-storepass", password, "-keypass", password)
+                .redirectErrorStream(true).start();
+        keytool.getInputStream().readAllBytes();
+        keytool.waitFor();
+        return keystore;
+    }
+}
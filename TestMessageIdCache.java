@@ -0,0 +1,41 @@
+public class TestMessageIdCache {
+    public static void main(String[] args) throws Exception {
+
+        // 1) messageId survives serialization, and old frames without it decode as 0
+        ChatMessage msg = new ChatMessage(MessageType.TEXT_MESSAGE, "alice", null, "room1", "hi",
+                System.currentTimeMillis());
+        msg.setMessageId(123456789012L);
+        ChatMessage decoded = MessageDeserializer.deserialize(MessageSerializer.serialize(msg));
+        System.out.println("Decoded messageId: " + decoded.getMessageId() + " (expected 123456789012)");
+
+        // 2) Duplicates within the TTL are detected
+        MessageIdCache cache = new MessageIdCache(4, 1000);
+        long now = 0;
+        System.out.println("First 1:     " + cache.checkAndAdd(1, now) + " (expected false)");
+        System.out.println("Repeat 1:    " + cache.checkAndAdd(1, now + 10) + " (expected true)");
+        System.out.println("After TTL 1: " + cache.checkAndAdd(1, now + 2000) + " (expected false)");
+
+        // 3) Capacity is bounded: the oldest IDs are forgotten
+        for (long id = 2; id <= 5; id++) {
+            cache.checkAndAdd(id, now);
+        }
+        System.out.println("Size:        " + cache.size() + " (expected 4)");
+        System.out.println("Evicted 1:   " + cache.checkAndAdd(1, now) + " (expected false)");
+        System.out.println("Kept 5:      " + cache.checkAndAdd(5, now) + " (expected true)");
+
+        // 4) A removed ID is accepted again, e.g. after its message could not be delivered
+        cache.remove(5);
+        System.out.println("Removed 5:   " + cache.checkAndAdd(5, now) + " (expected false)");
+        System.out.println("Repeat 5:    " + cache.checkAndAdd(5, now) + " (expected true)");
+
+        // 5) Many inserts and evictions keep lookups consistent
+        MessageIdCache big = new MessageIdCache(1000, 60_000);
+        int wrong = 0;
+        for (long id = 1; id <= 100_000; id++) {
+            if (big.checkAndAdd(id * 7919, 0)) wrong++;
+            if (!big.checkAndAdd(id * 7919, 0)) wrong++;
+            if (id > 1000 && big.checkAndAdd((id - 1000) * 7919, 0)) wrong++;
+        }
+        System.out.println("Inconsistent lookups: " + wrong + " (expected 0)");
+    }
+}
@@ -0,0 +1,93 @@
+import java.io.File;
+import java.util.List;
+
+public class TestOfflineMessageStore {
+    public static void main(String[] args) throws Exception {
+
+        File spillFile = File.createTempFile("offline", ".dat");
+        spillFile.deleteOnExit();
+
+        // Tiny memory caps so most messages spill to disk
+        OfflineMessageStore store = new OfflineMessageStore(spillFile, 300, 1000, 1_000_000, Long.MAX_VALUE);
+
+        for (int i = 0; i < 10; i++) {
+            ChatMessage pm = new ChatMessage(
+                    MessageType.PRIVATE_MESSAGE,
+                    "alice",
+                    "bob",
+                    null,
+                    "message " + i,
+                    System.currentTimeMillis()
+            );
+            store.store("bob", pm);
+        }
+        System.out.println("Pending for bob: " + store.pendingCount("bob") + " (expected 10)");
+        System.out.println("Spill file size: " + spillFile.length() + " bytes");
+
+        List<ChatMessage> backlog = store.drain("bob");
+        for (ChatMessage msg : backlog) {
+            System.out.println("Delivered: " + msg.getContent());
+        }
+        System.out.println("Pending after drain: " + store.pendingCount("bob") + " (expected 0)");
+        System.out.println("Spill file after drain: " + spillFile.length() + " bytes (expected 0)");
+
+        // Disk cap reached -> store refuses
+        OfflineMessageStore full = new OfflineMessageStore(spillFile, 0, 0, 100, Long.MAX_VALUE);
+        ChatMessage big = new ChatMessage(MessageType.PRIVATE_MESSAGE, "alice", "carol", null,
+                "x".repeat(200), System.currentTimeMillis());
+        System.out.println("Stored over cap: " + full.store("carol", big) + " (expected false)");
+
+        // The cap counts undelivered bytes: one old message for dave does not block a
+        // stream of delivered ones for erin, and the file is compacted instead of growing
+        OfflineMessageStore busy = new OfflineMessageStore(spillFile, 0, 0, 4000, Long.MAX_VALUE);
+        ChatMessage note = new ChatMessage(MessageType.PRIVATE_MESSAGE, "alice", "dave", null,
+                "x".repeat(1000), System.currentTimeMillis());
+        busy.store("dave", note);
+        boolean allStored = true;
+        for (int i = 0; i < 50; i++) {
+            allStored &= busy.store("erin", note);
+            busy.drain("erin");
+        }
+        System.out.println("Stored past cap:  " + allStored + " (expected true)");
+        System.out.println("Spill file <= cap: " + (spillFile.length() <= 4000) + " (expected true)");
+        System.out.println("Dave after compaction: " + busy.drain("dave").get(0).getContent().length()
+                + " (expected 1000)");
+
+        // Online users get messages live; a login drains until nothing new came in
+        OfflineMessageStore presence = new OfflineMessageStore(spillFile, 1000, 1000, 1000, Long.MAX_VALUE);
+        ChatMessage hi = new ChatMessage(MessageType.PRIVATE_MESSAGE, "alice", "frank", null,
+                "hi", System.currentTimeMillis());
+        System.out.println("Offline:          " + presence.storeIfOffline("frank", hi) + " (expected QUEUED)");
+        presence.drain("frank");
+        presence.storeIfOffline("frank", hi);          // arrives between drain and going online
+        System.out.println("Finish drain:     " + presence.finishDrain("frank") + " (expected false)");
+        presence.drain("frank");
+        System.out.println("Finish again:     " + presence.finishDrain("frank") + " (expected true)");
+        System.out.println("Online:           " + presence.storeIfOffline("frank", hi) + " (expected LIVE)");
+        presence.markOffline("frank");
+        System.out.println("Offline again:    " + presence.storeIfOffline("frank", hi) + " (expected QUEUED)");
+
+        // One sender's undelivered bytes are capped across all recipients; others are unaffected
+        ChatMessage spam = new ChatMessage(MessageType.PRIVATE_MESSAGE, "mallory", "nobody", null,
+                "x".repeat(100), System.currentTimeMillis());
+        int frameBytes = MessageSerializer.serialize(spam).length;
+        OfflineMessageStore capped = new OfflineMessageStore(spillFile, 10_000, 10_000, 10_000, 3L * frameBytes);
+        int stored = 0;
+        for (int i = 0; i < 10; i++) {
+            if (capped.store("nobody" + i, spam)) {
+                stored++;
+            }
+        }
+        System.out.println("Sender capped:    " + stored + " of 10 (expected 3 of 10)");
+        System.out.println("Other sender:     " + capped.store("nobody0", hi) + " (expected true)");
+        capped.drain("nobody0");
+        System.out.println("After drain:      " + capped.pendingBytesFrom("mallory") / frameBytes + " frames, "
+                + capped.store("nobody9", spam) + " (expected 2 frames, true)");
+
+        store.close();
+        full.close();
+        capped.close();
+        busy.close();
+        presence.close();
+    }
+}
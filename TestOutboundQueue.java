@@ -0,0 +1,89 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class TestOutboundQueue {
+    public static void main(String[] args) throws Exception {
+
+        // Hold the drain task so everything is queued before the first write
+        List<Runnable> tasks = new ArrayList<>();
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        OutboundQueue queue = new OutboundQueue(sink, tasks::add, () -> {}, 15, 1000);
+
+        for (int i = 0; i < 20; i++) {
+            queue.enqueue(OutboundPriority.BULK, new byte[] {'b'});
+        }
+        for (int i = 0; i < 20; i++) {
+            queue.enqueue(OutboundPriority.CONTROL, new byte[] {'c'});
+        }
+        queue.enqueue(OutboundPriority.DIRECT, new byte[] {'d'});
+
+        System.out.println("Queued:  " + queue.getQueuedFrames() + " (expected 36)");
+        System.out.println("Dropped: " + queue.getDroppedFrames() + " (expected 5)");
+
+        tasks.get(0).run();
+
+        // Urgent frames first, but one room frame after every 8 urgent ones
+        System.out.println("Order:    " + sink.toString("US-ASCII"));
+        System.out.println("Expected: ccccccccbccccccccbccccdbbbbbbbbbbbbb");
+        System.out.println("Queued after drain: " + queue.getQueuedFrames() + " (expected 0)");
+        System.out.println("Bytes after drain:  " + queue.getQueuedBytes() + " (expected 0)");
+
+        // Past the byte bound, across all classes, the queue closes and the session is failed
+        tasks.clear();
+        boolean[] failed = new boolean[1];
+        OutboundQueue slow = new OutboundQueue(new ByteArrayOutputStream(), tasks::add, () -> failed[0] = true,
+                15, 250);
+        boolean accepted = slow.enqueue(OutboundPriority.CONTROL, new byte[100])
+                & slow.enqueue(OutboundPriority.DIRECT, new byte[100]);
+        System.out.println("Under bound: " + accepted + ", " + slow.getQueuedBytes() + " bytes (expected true, 200 bytes)");
+        boolean over = slow.enqueue(OutboundPriority.DIRECT, new byte[100]);
+        System.out.println("Over bound:  " + over + ", closed " + slow.isClosed() + ", failed " + failed[0]
+                + " (expected false, closed true, failed true)");
+
+        // A write the client does not take shows up as blocked; closing the stream, as the
+        // server does after the write timeout, fails it and frees the writer
+        StuckStream stuck = new StuckStream();
+        CountDownLatch gaveUp = new CountDownLatch(1);
+        OutboundQueue blocked = new OutboundQueue(stuck, r -> new Thread(r).start(), gaveUp::countDown, 15, 1 << 20);
+        System.out.println("Idle writer:  " + blocked.getWriteBlockedMillis() + " ms (expected 0 ms)");
+        blocked.enqueue(OutboundPriority.DIRECT, new byte[128 * 1024]);
+        stuck.entered.await();
+        Thread.sleep(50);
+        System.out.println("Blocked 50+:  " + (blocked.getWriteBlockedMillis() >= 50) + " (expected true)");
+        stuck.close();
+        System.out.println("Failed:       " + gaveUp.await(5, TimeUnit.SECONDS) + ", closed " + blocked.isClosed()
+                + " (expected true, closed true)");
+    }
+
+    // Blocks every write, like a socket whose peer stopped reading, until closed
+    private static final class StuckStream extends OutputStream {
+        final CountDownLatch entered = new CountDownLatch(1);
+        private final CountDownLatch closed = new CountDownLatch(1);
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            entered.countDown();
+            try {
+                closed.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            throw new IOException("Socket closed");
+        }
+
+        @Override
+        public void close() {
+            closed.countDown();
+        }
+    }
+}
@@ -0,0 +1,33 @@
+import java.io.ByteArrayOutputStream;
+
+public class TestPresence {
+    public static void main(String[] args) throws Exception {
+
+        // 1) Events of one window become one digest; only the first asks for scheduling
+        ChatRoom room = new ChatRoom("room1", 2);
+        room.join(new ClientSession(null, new ByteArrayOutputStream()));
+        System.out.println("First join:  " + room.recordJoin("alice") + " (expected true)");
+        System.out.println("Second join: " + room.recordJoin("bob") + " (expected false)");
+        room.recordLeave("carol");
+        System.out.println("Digest:      " + room.drainPresence() + " (expected joined=alice,bob;left=carol)");
+        System.out.println("Drained:     " + room.drainPresence() + " (expected null)");
+
+        // 2) A join and a leave of the same user within one window cancel out, either way round
+        System.out.println("New window:  " + room.recordJoin("dave") + " (expected true)");
+        room.recordLeave("dave");
+        room.recordLeave("erin");
+        room.recordJoin("erin");
+        System.out.println("Cancelled:   " + room.drainPresence() + " (expected null)");
+
+        // 3) Above the max room size nothing is recorded
+        room.join(new ClientSession(null, new ByteArrayOutputStream()));
+        room.join(new ClientSession(null, new ByteArrayOutputStream()));
+        System.out.println("Big room:    " + room.recordJoin("frank") + ", " + room.drainPresence()
+                + " (expected false, null)");
+
+        // 4) 0 switches presence off for every room
+        ChatRoom quiet = new ChatRoom("room2", 0);
+        System.out.println("Off:         " + quiet.recordJoin("alice") + ", " + quiet.drainPresence()
+                + " (expected false, null)");
+    }
+}
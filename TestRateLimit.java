@@ -0,0 +1,53 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+public class TestRateLimit {
+    public static void main(String[] args) throws Exception {
+
+        // 1) peekType reads the type without decoding the body
+        ProtocolParser parser = new ProtocolParser();
+        ChatMessage msg = new ChatMessage(
+                MessageType.TEXT_MESSAGE,
+                "alice",
+                null,
+                "room1",
+                "flood",
+                System.currentTimeMillis()
+        );
+        byte[] data = MessageSerializer.serialize(msg);
+
+        System.out.println("Peeked type:   " + parser.peekType(data));
+        System.out.println("Peek on junk:  " + parser.peekType(new byte[] {1, 2, 3}));
+
+        // Whitespace around the colon must not hide the type from the limiter
+        String spaced = new String(data, 4, data.length - 4, StandardCharsets.UTF_8)
+                .replace("\"type\":\"", "\"type\" : \"");
+        byte[] body = spaced.getBytes(StandardCharsets.UTF_8);
+        byte[] spacedFrame = ByteBuffer.allocate(4 + body.length).putInt(body.length).put(body).array();
+        System.out.println("Peek spaced:   " + parser.peekType(spacedFrame) + " (expected "
+                + parser.parse(spacedFrame).getType() + ")");
+        System.out.println();
+
+        // 2) A session limited to a burst of 5 messages
+        RateLimitPolicy policy = RateLimitPolicy.unlimited()
+                .setTypeLimit(MessageType.TEXT_MESSAGE, new RateLimitPolicy.Limit(1, 5, 0, 0));
+        RateLimiter limiter = policy.newLimiter();
+
+        int accepted = 0;
+        for (int i = 0; i < 20; i++) {
+            if (limiter.tryAcquire(MessageType.TEXT_MESSAGE, data.length)) {
+                accepted++;
+            }
+        }
+        System.out.println("Accepted TEXT_MESSAGE: " + accepted + " / 20 (expected 5)");
+        System.out.println("PRIVATE_MESSAGE allowed: " + limiter.tryAcquire(MessageType.PRIVATE_MESSAGE, data.length));
+        System.out.println();
+
+        // 3) Byte limit: 100 bytes/s with a 100 byte burst
+        RateLimiter bytes = RateLimitPolicy.unlimited()
+                .setSessionLimit(new RateLimitPolicy.Limit(0, 0, 100, 100))
+                .newLimiter();
+        System.out.println("60 bytes: " + bytes.tryAcquire(MessageType.TEXT_MESSAGE, 60));
+        System.out.println("60 bytes: " + bytes.tryAcquire(MessageType.TEXT_MESSAGE, 60) + " (expected false)");
+    }
+}
@@ -0,0 +1,76 @@
+import java.util.ArrayList;
+import java.util.List;
+
+public class TestRoomSearchIndex {
+    public static void main(String[] args) {
+
+        // 1) Case-insensitive AND search, newest first
+        RoomSearchIndex index = new RoomSearchIndex(100, 1_000_000);
+        index.add("alice", "Deploy the new build tonight", 1);
+        index.add("bob", "the build is green", 2);
+        index.add("carol", "Lunch?", 3);
+        index.add("alice", "BUILD failed, tonight again", 4);
+        System.out.println("build:         " + senders(index.search("build", 0, 10)) + " (expected alice,bob,alice)");
+        System.out.println("Build tonight: " + senders(index.search("Build tonight", 0, 10)) + " (expected alice,alice)");
+        System.out.println("lunch:         " + senders(index.search("LUNCH", 0, 10)) + " (expected carol)");
+        System.out.println("missing term:  " + index.search("build pizza", 0, 10).hits.size() + " (expected 0)");
+
+        // 2) Pagination with the "before" cursor
+        RoomSearchIndex paged = new RoomSearchIndex(1000, 10_000_000);
+        for (int i = 1; i <= 25; i++) {
+            paged.add("u", "message number " + i, i);
+        }
+        List<String> pages = new ArrayList<>();
+        long cursor = 0;
+        do {
+            RoomSearchIndex.Result page = paged.search("message", cursor, 10);
+            pages.add(page.hits.size() + ":" + page.hits.get(0).content.replace("message number ", ""));
+            cursor = page.next;
+        } while (cursor != 0);
+        System.out.println("Pages:         " + pages + " (expected [10:25, 10:15, 5:5])");
+
+        // 3) Count bound evicts the oldest messages and their terms
+        RoomSearchIndex small = new RoomSearchIndex(3, 1_000_000);
+        small.add("a", "alpha common", 1);
+        small.add("b", "beta common", 2);
+        small.add("c", "gamma common", 3);
+        small.add("d", "delta common", 4);
+        System.out.println("Size:          " + small.size() + " (expected 3)");
+        System.out.println("alpha:         " + small.search("alpha", 0, 10).hits.size() + " (expected 0)");
+        System.out.println("common:        " + senders(small.search("common", 0, 10)) + " (expected d,c,b)");
+        System.out.println("Terms:         " + small.termCount() + " (expected 4)");
+
+        // 4) Byte budget stays bounded under a long stream
+        RoomSearchIndex bounded = new RoomSearchIndex(1_000_000, 256 * 1024);
+        for (int i = 0; i < 200_000; i++) {
+            bounded.add("user" + (i % 50), "token" + (i % 5000) + " shared word " + i, i);
+        }
+        System.out.println("Within budget: " + (bounded.getMemoryBytes() <= 256 * 1024) + " (expected true)");
+        System.out.println("Newest found:  " + bounded.search("199999", 0, 10).hits.size() + " (expected 1)");
+        System.out.println("Oldest gone:   " + bounded.search("0", 0, 10).hits.size() + " (expected 0)");
+
+        // 5) The message ring grows with use, not up front, and keeps the order across growth
+        RoomSearchIndex quiet = new RoomSearchIndex(20_000, 1_000_000);
+        quiet.add("a", "hello", 1);
+        System.out.println("Quiet room:    " + (quiet.getMemoryBytes() < 1024) + " (expected true)");
+        for (int i = 2; i <= 100; i++) {
+            quiet.add("u" + i, "hello again", i);
+        }
+        System.out.println("After growth:  " + quiet.size() + " " + quiet.search("hello", 0, 1).hits.get(0).sender
+                + " " + quiet.search("hello", 0, 100).hits.get(99).sender + " (expected 100 u100 a)");
+
+        // 6) Unicode and punctuation
+        RoomSearchIndex unicode = new RoomSearchIndex(10, 100_000);
+        unicode.add("zoé", "Ça marche très bien, déjà testé!", 1);
+        System.out.println("très:          " + unicode.search("TRÈS", 0, 10).hits.size() + " (expected 1)");
+    }
+
+    private static String senders(RoomSearchIndex.Result result) {
+        StringBuilder sb = new StringBuilder();
+        for (RoomSearchIndex.Hit hit : result.hits) {
+            if (sb.length() > 0) sb.append(',');
+            sb.append(hit.sender);
+        }
+        return sb.toString();
+    }
+}
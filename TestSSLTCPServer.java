@@ -0,0 +1,146 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+public class TestSSLTCPServer {
+    public static void main(String[] args) throws Exception {
+
+        // 1) LineReader: lines split across reads, several lines in one read, end of stream
+        SSLTCPServer.LineReader reader = new SSLTCPServer.LineReader(
+                new PieceStream("hel", "lo\nwor", "ld\n\nlast"), 1024);
+        StringBuilder lines = new StringBuilder();
+        while (reader.next(null)) {
+            lines.append('[').append(new String(reader.buffer(), reader.lineStart(), reader.lineLength(),
+                    StandardCharsets.US_ASCII)).append(']');
+        }
+        System.out.println("Lines:        " + lines + " (expected [hello][world][])");
+
+        byte[] endless = new byte[40_000];
+        Arrays.fill(endless, (byte) 'x');
+        try {
+            new SSLTCPServer.LineReader(new PieceStream(new String(endless, StandardCharsets.US_ASCII)), 32 * 1024)
+                    .next(null);
+            System.out.println("Too long:     accepted (expected Line too long)");
+        } catch (IOException e) {
+            System.out.println("Too long:     " + e.getMessage() + " (expected Line too long)");
+        }
+
+        byte[] quit = " QuIt \r".getBytes(StandardCharsets.US_ASCII);
+        System.out.println("isQuit:       " + SSLTCPServer.isQuit(quit, 0, quit.length) + ", "
+                + SSLTCPServer.isQuit("quits".getBytes(StandardCharsets.US_ASCII), 0, 5) + " (expected true, false)");
+
+        // 2) Both server loops: pipelined lines, one longer than a TLS record, then quit
+        File keystore = createKeystore();
+        SSLSocketFactory factory = SSLClient.createSSLContext(true).getSocketFactory();
+        for (SSLTCPServer.Mode mode : new SSLTCPServer.Mode[] {SSLTCPServer.Mode.NIO, SSLTCPServer.Mode.BLOCKING}) {
+            SSLTCPServer server = new SSLTCPServer(0, keystore.getPath(), "changeit", mode, 1, TlsProfile.MODERN);
+            Thread acceptor = new Thread(server::launch);
+            acceptor.setDaemon(true);
+            acceptor.start();
+
+            byte[] big = new byte[50_000];
+            Arrays.fill(big, (byte) 'b');
+            try (SSLSocket socket = (SSLSocket) factory.createSocket("localhost", server.getPort())) {
+                socket.setSoTimeout(10_000);
+                ByteArrayOutputStream request = new ByteArrayOutputStream();
+                request.write("one\n".getBytes(StandardCharsets.US_ASCII));
+                request.write(big);
+                request.write("\ntwo\nquit\nignored\n".getBytes(StandardCharsets.US_ASCII));
+                OutputStream out = socket.getOutputStream();
+                out.write(request.toByteArray());
+                out.flush();
+
+                SSLTCPServer.LineReader in = new SSLTCPServer.LineReader(socket.getInputStream(),
+                        SSLTCPServer.MAX_LINE + 64);
+                StringBuilder echoes = new StringBuilder();
+                while (in.next(null)) {
+                    String line = new String(in.buffer(), in.lineStart(), in.lineLength(), StandardCharsets.US_ASCII);
+                    echoes.append('[').append(line.length() > 100 ? line.length() + " bytes" : line).append(']');
+                }
+                System.out.println(mode + " echoes: " + echoes);
+                System.out.println("  (expected [Welcome to the SSL server. Type 'quit' to exit.][Echo: one]"
+                        + "[50006 bytes][Echo: two][Goodbye!])");
+            }
+
+            // A line over MAX_LINE closes the connection
+            try (SSLSocket socket = (SSLSocket) factory.createSocket("localhost", server.getPort())) {
+                socket.setSoTimeout(10_000);
+                System.out.println(mode + " long line closed: " + closedByLongLine(socket) + " (expected true)");
+            }
+            server.shutdown();
+        }
+    }
+
+    // Send more than MAX_LINE without a '\n'; the server must hang up instead of buffering it
+    private static boolean closedByLongLine(SSLSocket socket) {
+        try {
+            InputStream in = socket.getInputStream();
+            OutputStream out = socket.getOutputStream();
+            byte[] chunk = new byte[64 * 1024];
+            Arrays.fill(chunk, (byte) 'x');
+            for (int sent = 0; sent <= SSLTCPServer.MAX_LINE + chunk.length; sent += chunk.length) {
+                out.write(chunk);
+            }
+            out.flush();
+            in.readNBytes(SSLTCPServer.WELCOME.length);
+            return in.read() < 0;
+        } catch (SocketTimeoutException e) {
+            return false;   // still open
+        } catch (IOException e) {
+            return true;    // reset while writing or reading: closed as well
+        }
+    }
+
+    // Hands out the given pieces one read() at a time
+    private static final class PieceStream extends InputStream {
+        private final String[] pieces;
+        private int next;
+
+        PieceStream(String... pieces) {
+            this.pieces = pieces;
+        }
+
+        @Override
+        public int read() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (next == pieces.length) {
+                return -1;
+            }
+            byte[] piece = pieces[next++].getBytes(StandardCharsets.US_ASCII);
+            int n = Math.min(len, piece.length);
+            System.arraycopy(piece, 0, b, off, n);
+            if (n < piece.length) {
+                pieces[--next] = new String(piece, n, piece.length - n, StandardCharsets.US_ASCII);
+            }
+            return n;
+        }
+    }
+
+    // A throwaway EC key made by keytool
+    private static File createKeystore() throws Exception {
+        File dir = Files.createTempDirectory("ssltcp").toFile();
+        File keystore = new File(dir, "test.jks");
+        Process keytool = new ProcessBuilder(new File(System.getProperty("java.home"), "bin/keytool").getPath(),
+                "-genkeypair", "-alias", "test", "-keyalg", "EC", "-groupname", "secp256r1",
+                "-dname", "CN=localhost", "-validity", "2", "-storetype", "JKS",
+                "-keystore", keystore.getPath(), "-storepass", "changeit", "-keypass", "changeit")
+                .redirectErrorStream(true).start();
+        keytool.getInputStream().readAllBytes();
+        keytool.waitFor();
+        keystore.deleteOnExit();
+        dir.deleteOnExit();
+        return keystore;
+    }
+}
@@ -0,0 +1,46 @@
+import java.util.Arrays;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+
+public class TestTlsProfile {
+    public static void main(String[] args) throws Exception {
+        SSLContext context = SSLClient.createSSLContext(true);
+
+        // 1) A profile restricts protocols and suites, in the profile's order
+        SSLEngine engine = context.createSSLEngine();
+        engine.setUseClientMode(true);
+        TlsProfile.TLS13_CHACHA20.apply(engine);
+        System.out.println("Protocols:    " + Arrays.toString(engine.getEnabledProtocols()) + " (expected [TLSv1.3])");
+        System.out.println("Suites:       " + Arrays.toString(engine.getEnabledCipherSuites())
+                + " (expected [TLS_CHACHA20_POLY1305_SHA256])");
+
+        engine = context.createSSLEngine();
+        engine.setUseClientMode(false);
+        TlsProfile.MODERN.apply(engine);
+        System.out.println("First suite:  " + engine.getEnabledCipherSuites()[0] + " (expected TLS_AES_128_GCM_SHA256)");
+        System.out.println("Server order: " + engine.getSSLParameters().getUseCipherSuitesOrder() + " (expected true)");
+
+        // 2) DEFAULT leaves the JVM's choice alone
+        SSLEngine plain = context.createSSLEngine();
+        engine = context.createSSLEngine();
+        TlsProfile.DEFAULT.apply(engine);
+        System.out.println("Default:      " + Arrays.equals(plain.getEnabledCipherSuites(), engine.getEnabledCipherSuites())
+                + " (expected true)");
+
+        // 3) Unsupported suites are skipped; none left is an error
+        System.out.println("Filtered:     " + Arrays.toString(TlsProfile.MODERN.cipherSuites(
+                new String[] {"TLS_CHACHA20_POLY1305_SHA256", "TLS_AES_128_GCM_SHA256"}))
+                + " (expected [TLS_AES_128_GCM_SHA256, TLS_CHACHA20_POLY1305_SHA256])");
+        try {
+            TlsProfile.TLS13_AES_GCM.cipherSuites(new String[] {"TLS_CHACHA20_POLY1305_SHA256"});
+            System.out.println("None left:    accepted (expected an error)");
+        } catch (IllegalStateException e) {
+            System.out.println("None left:    " + e.getMessage());
+        }
+
+        // 4) Chosen with tls.profile
+        ChatConfig config = ChatConfig.fromArgs(new String[] {"--tls.profile=tls13_aes_gcm"}, null).validate();
+        System.out.println("Config:       " + config.getTlsProfile() + " (expected TLS13_AES_GCM)");
+        System.out.println("Default cfg:  " + new ChatConfig().getTlsProfile() + " (expected MODERN)");
+    }
+}
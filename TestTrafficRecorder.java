@@ -0,0 +1,53 @@
+import java.io.File;
+import java.util.Arrays;
+
+public class TestTrafficRecorder {
+    public static void main(String[] args) throws Exception {
+
+        File capture = File.createTempFile("capture", ".scap");
+        capture.deleteOnExit();
+
+        // 1) Entries come back in order, with their connection, frame and time
+        byte[] first = MessageSerializer.serialize(new ChatMessage(MessageType.LOGIN_REQUEST, "alice", null, null,
+                null, 0));
+        byte[] second = MessageSerializer.serialize(new ChatMessage(MessageType.TEXT_MESSAGE, "bob", null, "room1",
+                "hi", 0));
+        TrafficRecorder recorder = new TrafficRecorder(capture);
+        recorder.record(1, first);
+        Thread.sleep(20);       // a gap the timestamps must show
+        recorder.record(2, second);
+        recorder.recordClose(1);
+        recorder.close();
+
+        try (TrafficReplay.CaptureReader in = new TrafficReplay.CaptureReader(capture)) {
+            in.next();
+            long firstNanos = in.nanos();
+            System.out.println("Entry 1:   " + in.connectionId() + " " + Arrays.equals(first, in.frame())
+                    + " (expected 1 true)");
+            in.next();
+            System.out.println("Entry 2:   " + in.connectionId() + " " + Arrays.equals(second, in.frame())
+                    + " (expected 2 true)");
+            System.out.println("Gap >= 20 ms: " + (in.nanos() - firstNanos >= 20_000_000L) + " (expected true)");
+            long secondNanos = in.nanos();
+            in.next();
+            System.out.println("Entry 3:   " + in.connectionId() + " " + (in.frame() == null ? "CLOSED" : "frame")
+                    + " (expected 1 CLOSED)");
+            System.out.println("In order:  " + (in.nanos() >= secondNanos) + " (expected true)");
+            System.out.println("End:       " + in.next() + " (expected false)");
+        }
+
+        // 2) The queue is bounded in bytes: one big frame is dropped, small ones still fit
+        TrafficRecorder small = new TrafficRecorder(capture, 100);
+        small.record(1, new byte[10]);
+        small.record(1, new byte[200]);
+        small.close();
+        System.out.println("Dropped:   " + small.getDropped() + " (expected 1)");
+        int entries = 0;
+        try (TrafficReplay.CaptureReader in = new TrafficReplay.CaptureReader(capture)) {
+            while (in.next()) {
+                entries++;
+            }
+        }
+        System.out.println("Written:   " + entries + " (expected 1)");
+    }
+}
@@ -0,0 +1,223 @@
+import java.io.FileInputStream;
+import java.nio.ByteBuffer;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.List;
+import javax.net.ssl.*;
+
+/**
+ * Handshake rate and bulk encryption throughput per TlsProfile on this machine.
+ *
+ * Client and server SSLEngines talk through in-memory buffers, so the numbers are pure
+ * TLS cost on one core: no sockets, no scheduling. For each profile:
+ *   full/s     new handshakes per second (no session to resume)
+ *   resumed/s  handshakes resuming a cached session
+ *   encrypt    MB/s of plaintext through wrap() in full-size records
+ *   decrypt    MB/s of plaintext out of unwrap() for the same records
+ *
+ * Handshake cost depends mostly on the certificate key (shown at the top), bulk cost on
+ * the cipher and whether the CPU has AES instructions. Use SSLTCPBenchmark against
+ * SSLTCPServer for the end-to-end picture including sockets.
+ */
+public class TlsBenchmark {
+
+    private static final int RECORD_BYTES = 16 * 1024;
+
+    private final SSLContext serverContext;
+    private final SSLContext clientContext;
+    private final long measureNanos;
+
+    // One profile's results
+    private static final class Result {
+        String suite;
+        String protocol;
+        double fullPerSecond;
+        double resumedPerSecond;
+        double encryptMBps;
+        double decryptMBps;
+    }
+
+    public TlsBenchmark(String keystorePath, String password, double seconds) throws Exception {
+        this.serverContext = createServerContext(keystorePath, password);
+        this.clientContext = SSLClient.createSSLContext(true);
+        this.measureNanos = (long) (seconds * 1e9);
+    }
+
+    private static SSLContext createServerContext(String keystorePath, String password) throws Exception {
+        KeyStore ks = KeyStore.getInstance("JKS");
+        try (FileInputStream fis = new FileInputStream(keystorePath)) {
+            ks.load(fis, password.toCharArray());
+        }
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(ks, password.toCharArray());
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(kmf.getKeyManagers(), null, null);
+        return context;
+    }
+
+    public void run(List<TlsProfile> profiles) throws Exception {
+        System.out.println("Java " + System.getProperty("java.version") + " on " + System.getProperty("os.arch")
+                + ", " + Runtime.getRuntime().availableProcessors() + " CPUs, measured "
+                + measureNanos / 1e9 + " s per test after a warmup pass");
+
+        // One unmeasured pass of the same length first: AES-GCM in particular is several
+        // times slower until the JIT has compiled it with the CPU's AES instructions
+        for (TlsProfile profile : profiles) {
+            measure(profile, measureNanos);
+        }
+
+        System.out.println(String.format("%-15s %-38s %10s %10s %10s %10s",
+                "profile", "negotiated", "full/s", "resumed/s", "enc MB/s", "dec MB/s"));
+        for (TlsProfile profile : profiles) {
+            Result r = measure(profile, measureNanos);
+            System.out.println(String.format("%-15s %-38s %10.0f %10.0f %10.1f %10.1f",
+                    profile, r.protocol + " " + r.suite, r.fullPerSecond, r.resumedPerSecond,
+                    r.encryptMBps, r.decryptMBps));
+        }
+    }
+
+    private Result measure(TlsProfile profile, long nanos) throws Exception {
+        Result result = new Result();
+
+        // Full handshakes: a client engine without peer host/port never resumes
+        int count = 0;
+        long start = System.nanoTime();
+        while (System.nanoTime() - start < nanos) {
+            handshake(newEngine(clientContext, true, profile, null, 0), newEngine(serverContext, false, profile, null, 0));
+            count++;
+        }
+        result.fullPerSecond = count * 1e9 / (System.nanoTime() - start);
+
+        // Resumed handshakes: the same peer every time, so the client cache has a session
+        String peer = "bench-" + profile;
+        handshake(newEngine(clientContext, true, profile, peer, 1), newEngine(serverContext, false, profile, null, 0));
+        count = 0;
+        start = System.nanoTime();
+        while (System.nanoTime() - start < nanos) {
+            handshake(newEngine(clientContext, true, profile, peer, 1), newEngine(serverContext, false, profile, null, 0));
+            count++;
+        }
+        result.resumedPerSecond = count * 1e9 / (System.nanoTime() - start);
+
+        // Bulk: full-size records from client to server
+        SSLEngine client = newEngine(clientContext, true, profile, null, 0);
+        SSLEngine server = newEngine(serverContext, false, profile, null, 0);
+        handshake(client, server);
+        result.suite = client.getSession().getCipherSuite();
+        result.protocol = client.getSession().getProtocol();
+
+        ByteBuffer plain = ByteBuffer.allocate(RECORD_BYTES);
+        ByteBuffer net = ByteBuffer.allocate(client.getSession().getPacketBufferSize());
+        ByteBuffer received = ByteBuffer.allocate(server.getSession().getApplicationBufferSize());
+        long wrapNanos = 0, unwrapNanos = 0, bytes = 0;
+        start = System.nanoTime();
+        while (System.nanoTime() - start < nanos) {
+            plain.clear();
+            net.clear();
+            long t0 = System.nanoTime();
+            int consumed = client.wrap(plain, net).bytesConsumed();     // may be a little under a full record
+            long t1 = System.nanoTime();
+            net.flip();
+            received.clear();
+            server.unwrap(net, received);
+            long t2 = System.nanoTime();
+            if (received.position() != consumed) {
+                throw new SSLException("Record of " + consumed + " bytes came back with " + received.position());
+            }
+            wrapNanos += t1 - t0;
+            unwrapNanos += t2 - t1;
+            bytes += consumed;
+        }
+        result.encryptMBps = bytes / (wrapNanos / 1e9) / (1024 * 1024);
+        result.decryptMBps = bytes / (unwrapNanos / 1e9) / (1024 * 1024);
+        return result;
+    }
+
+    private static SSLEngine newEngine(SSLContext context, boolean client, TlsProfile profile, String host, int port) {
+        SSLEngine engine = host == null ? context.createSSLEngine() : context.createSSLEngine(host, port);
+        engine.setUseClientMode(client);
+        profile.apply(engine);
+        return engine;
+    }
+
+    /**
+     * Run a handshake between two engines through in-memory buffers, including the
+     * session tickets TLS 1.3 sends right after it.
+     */
+    static void handshake(SSLEngine client, SSLEngine server) throws SSLException {
+        SSLSession session = client.getSession();
+        ByteBuffer toServer = ByteBuffer.allocate(session.getPacketBufferSize());
+        ByteBuffer toClient = ByteBuffer.allocate(session.getPacketBufferSize());
+        ByteBuffer empty = ByteBuffer.allocate(0);
+        ByteBuffer clientApp = ByteBuffer.allocate(session.getApplicationBufferSize());
+        ByteBuffer serverApp = ByteBuffer.allocate(session.getApplicationBufferSize());
+
+        client.beginHandshake();
+        server.beginHandshake();
+        for (int round = 0; round < 100; round++) {
+            boolean moved = step(client, empty, toServer, toClient, clientApp)
+                    | step(server, empty, toClient, toServer, serverApp);
+            if (!moved && idle(client) && idle(server)) {
+                return;
+            }
+        }
+        throw new SSLHandshakeException("Handshake did not finish");
+    }
+
+    // Wrap whatever the engine wants to send, unwrap whatever it has received
+    private static boolean step(SSLEngine engine, ByteBuffer empty, ByteBuffer out, ByteBuffer in, ByteBuffer app)
+            throws SSLException {
+        SSLEngineResult wrapped = engine.wrap(empty, out);
+        runTasks(engine);
+        in.flip();
+        SSLEngineResult unwrapped = engine.unwrap(in, app);
+        in.compact();
+        runTasks(engine);
+        if (unwrapped.getStatus() == SSLEngineResult.Status.CLOSED) {
+            throw new SSLHandshakeException("Peer closed during handshake");
+        }
+        return wrapped.bytesProduced() > 0 || unwrapped.bytesConsumed() > 0;
+    }
+
+    private static void runTasks(SSLEngine engine) {
+        Runnable task;
+        while ((task = engine.getDelegatedTask()) != null) {
+            task.run();
+        }
+    }
+
+    private static boolean idle(SSLEngine engine) {
+        SSLEngineResult.HandshakeStatus status = engine.getHandshakeStatus();
+        return status == SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING
+                || status == SSLEngineResult.HandshakeStatus.FINISHED;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("Usage: java TlsBenchmark <keystorePath> <password> [profiles] [seconds]");
+            System.out.println("  profiles: comma-separated TlsProfile names, or all (default)");
+            System.out.println("  seconds:  measured time per test and profile (default 2)");
+            return;
+        }
+
+        List<TlsProfile> profiles = new ArrayList<>();
+        if (args.length > 2 && !args[2].equalsIgnoreCase("all")) {
+            for (String name : args[2].split(",")) {
+                profiles.add(TlsProfile.valueOf(name.trim().toUpperCase()));
+            }
+        } else {
+            profiles.addAll(List.of(TlsProfile.values()));
+        }
+        double seconds = args.length > 3 ? Double.parseDouble(args[3]) : 2;
+
+        KeyStore ks = KeyStore.getInstance("JKS");
+        try (FileInputStream fis = new FileInputStream(args[0])) {
+            ks.load(fis, args[1].toCharArray());
+        }
+        String alias = ks.aliases().nextElement();
+        System.out.println("Server certificate key: " + ks.getCertificate(alias).getPublicKey().getAlgorithm()
+                + " (" + alias + ")");
+
+        new TlsBenchmark(args[0], args[1], seconds).run(profiles);
+    }
+}
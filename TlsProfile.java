@@ -0,0 +1,94 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSocket;
+
+/**
+ * Named sets of TLS protocol versions and cipher suites, chosen with tls.profile.
+ *
+ * The same profile must be usable on both ends: a client restricted to ChaCha20 cannot
+ * talk to a server restricted to AES-GCM. MODERN (the default) offers both AEAD families
+ * over TLS 1.3 only; on the server the profile's suite order wins, so list order matters.
+ * TlsBenchmark measures handshake and bulk cost per profile on the local machine.
+ *
+ * Suites the running JVM does not support are skipped; a profile left with none fails
+ * when it is applied rather than silently falling back to the JVM defaults.
+ */
+public enum TlsProfile {
+
+    // Whatever the JVM enables by default (the behaviour before profiles existed)
+    DEFAULT(null, null),
+
+    // TLS 1.3, AES-GCM first (fast with AES instructions), ChaCha20 as fallback
+    MODERN(new String[]{"TLSv1.3"}, new String[]{
+            "TLS_AES_128_GCM_SHA256", "TLS_AES_256_GCM_SHA384", "TLS_CHACHA20_POLY1305_SHA256"}),
+
+    TLS13_AES_GCM(new String[]{"TLSv1.3"}, new String[]{
+            "TLS_AES_128_GCM_SHA256", "TLS_AES_256_GCM_SHA384"}),
+
+    // Usually the cheaper choice on CPUs without AES instructions
+    TLS13_CHACHA20(new String[]{"TLSv1.3"}, new String[]{"TLS_CHACHA20_POLY1305_SHA256"}),
+
+    // For older clients: TLS 1.2 with forward-secret AEAD suites only
+    COMPATIBLE(new String[]{"TLSv1.3", "TLSv1.2"}, new String[]{
+            "TLS_AES_128_GCM_SHA256", "TLS_AES_256_GCM_SHA384", "TLS_CHACHA20_POLY1305_SHA256",
+            "TLS_ECDHE_ECDSA_WITH_AES_128_GCM_SHA256", "TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256",
+            "TLS_ECDHE_ECDSA_WITH_AES_256_GCM_SHA384", "TLS_ECDHE_RSA_WITH_AES_256_GCM_SHA384",
+            "TLS_ECDHE_ECDSA_WITH_CHACHA20_POLY1305_SHA256", "TLS_ECDHE_RSA_WITH_CHACHA20_POLY1305_SHA256"});
+
+    private final String[] protocols;       // null = JVM default
+    private final String[] cipherSuites;    // null = JVM default, otherwise in preference order
+
+    TlsProfile(String[] protocols, String[] cipherSuites) {
+        this.protocols = protocols;
+        this.cipherSuites = cipherSuites;
+    }
+
+    public void apply(SSLSocket socket) {
+        socket.setSSLParameters(configure(socket.getSSLParameters(), socket.getSupportedCipherSuites(),
+                !socket.getUseClientMode()));
+    }
+
+    public void apply(SSLServerSocket socket) {
+        socket.setSSLParameters(configure(socket.getSSLParameters(), socket.getSupportedCipherSuites(), true));
+    }
+
+    public void apply(SSLEngine engine) {
+        engine.setSSLParameters(configure(engine.getSSLParameters(), engine.getSupportedCipherSuites(),
+                !engine.getUseClientMode()));
+    }
+
+    // The profile's suites that the JVM supports, in profile order (null for DEFAULT)
+    public String[] cipherSuites(String[] supported) {
+        if (cipherSuites == null) {
+            return null;
+        }
+        List<String> available = Arrays.asList(supported);
+        List<String> usable = new ArrayList<>();
+        for (String suite : cipherSuites) {
+            if (available.contains(suite)) {
+                usable.add(suite);
+            }
+        }
+        if (usable.isEmpty()) {
+            throw new IllegalStateException("TLS profile " + this + ": no supported cipher suite among "
+                    + Arrays.toString(cipherSuites));
+        }
+        return usable.toArray(new String[0]);
+    }
+
+    private SSLParameters configure(SSLParameters params, String[] supported, boolean server) {
+        if (protocols != null) {
+            params.setProtocols(protocols);
+        }
+        String[] suites = cipherSuites(supported);
+        if (suites != null) {
+            params.setCipherSuites(suites);
+            params.setUseCipherSuitesOrder(server);
+        }
+        return params;
+    }
+}
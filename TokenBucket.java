@@ -0,0 +1,46 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+public class TokenBucket {
+
+    private final long nanosPerToken;   // time needed to earn back one token
+    private final long burstNanos;      // how far ahead of "now" the bucket may be drawn
+
+    // Theoretical arrival time: the instant at which the bucket would be full again.
+    // Keeping the whole state in one AtomicLong makes tryAcquire a single CAS loop (no lock).
+    private final AtomicLong tat;
+
+    /**
+     * @param ratePerSecond tokens refilled per second
+     * @param burst         maximum number of tokens that can be spent at once
+     */
+    public TokenBucket(double ratePerSecond, long burst) {
+        if (ratePerSecond <= 0 || burst <= 0) {
+            throw new IllegalArgumentException("Invalid token bucket: rate=" + ratePerSecond + " burst=" + burst);
+        }
+        this.nanosPerToken = Math.max(1L, (long) (1_000_000_000L / ratePerSecond));
+        this.burstNanos = burst * nanosPerToken;
+        this.tat = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * Try to take the given number of tokens. Never blocks.
+     * Returns false (and takes nothing) if the bucket does not hold enough tokens.
+     */
+    public boolean tryAcquire(long tokens) {
+        long now = System.nanoTime();
+        long cost = tokens * nanosPerToken;
+
+        while (true) {
+            long current = tat.get();
+            long base = (current - now > 0) ? current : now;
+            long next = base + cost;
+
+            if (next - now > burstNanos) {
+                return false;
+            }
+            if (tat.compareAndSet(current, next)) {
+                return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,130 @@
+import java.io.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records inbound frames to a capture file for TrafficReplay.
+ *
+ * File format (big-endian):
+ *   header: [magic:int "SCAP"][version:int]
+ *   entry:  [nanosSinceStart:long][connectionId:int][length:int][frame bytes...]
+ * The frame is stored exactly as read (length header included). length == -1 marks
+ * the connection as closed.
+ *
+ * Reader threads only enqueue; a background thread does the file I/O. The queue is
+ * bounded in bytes, since frames go up to frame.max.bytes: past the bound an entry is
+ * dropped and counted rather than slowing the server down or filling its heap.
+ */
+public class TrafficRecorder implements Closeable {
+
+    static final int MAGIC = 0x53434150;
+    static final int VERSION = 1;
+    static final int CLOSED = -1;
+
+    // Default bound on entries waiting for the writer, headers included
+    private static final long MAX_QUEUED_BYTES = 64L * 1024 * 1024;
+    private static final int ENTRY_HEADER_BYTES = 16;
+
+    private static final class Record {
+        final long nanos;
+        final int connectionId;
+        final byte[] frame;
+
+        Record(long nanos, int connectionId, byte[] frame) {
+            this.nanos = nanos;
+            this.connectionId = connectionId;
+            this.frame = frame;
+        }
+
+        long bytes() {
+            return ENTRY_HEADER_BYTES + (frame == null ? 0 : frame.length);
+        }
+    }
+
+    private static final Record STOP = new Record(0, 0, null);
+
+    private final DataOutputStream out;
+    private final BlockingQueue<Record> queue = new LinkedBlockingQueue<>();
+    private final long maxQueuedBytes;
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final long startNanos = System.nanoTime();
+    private final Thread writer;
+
+    public TrafficRecorder(File file) throws IOException {
+        this(file, MAX_QUEUED_BYTES);
+    }
+
+    public TrafficRecorder(File file, long maxQueuedBytes) throws IOException {
+        this.maxQueuedBytes = maxQueuedBytes;
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+
+        this.writer = new Thread(this::writeLoop, "traffic-recorder");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    // The frame array is kept as is, callers must not reuse it
+    public void record(int connectionId, byte[] frame) {
+        offer(new Record(System.nanoTime() - startNanos, connectionId, frame));
+    }
+
+    public void recordClose(int connectionId) {
+        offer(new Record(System.nanoTime() - startNanos, connectionId, null));
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    private void offer(Record r) {
+        long bytes = r.bytes();
+        if (queuedBytes.addAndGet(bytes) > maxQueuedBytes) {
+            queuedBytes.addAndGet(-bytes);
+            dropped.incrementAndGet();
+            return;
+        }
+        queue.offer(r);
+    }
+
+    private void writeLoop() {
+        try {
+            while (true) {
+                Record r = queue.take();
+                if (r == STOP) {
+                    break;
+                }
+                queuedBytes.addAndGet(-r.bytes());
+                out.writeLong(r.nanos);
+                out.writeInt(r.connectionId);
+                if (r.frame == null) {
+                    out.writeInt(CLOSED);
+                } else {
+                    out.writeInt(r.frame.length);
+                    out.write(r.frame);
+                }
+                if (queue.isEmpty()) {
+                    out.flush();
+                }
+            }
+            out.flush();
+        } catch (IOException e) {
+            EventLog.error("capture.write_failed", "error", e.getMessage());
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            queue.put(STOP);
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        out.close();
+    }
+}
@@ -0,0 +1,270 @@
+import java.io.*;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays a capture made by TrafficRecorder against a running SecureChatServer.
+ *
+ * Each captured connection becomes one AsyncChatClient (times the clone factor; clones
+ * get "-<n>" appended to every username so they do not collide). Frames are sent at
+ * their captured time divided by the speed factor, or back to back with "max".
+ *
+ * Room messages are tagged with a fresh message ID; since the server echoes a room
+ * message to its sender too, the time until that echo arrives back at the sender is the
+ * round-trip latency. Copies delivered to the other room members are counted as received
+ * but not timed, so the latency does not depend on which member happens to read first.
+ *
+ * Note: the server's rate limits apply to replayed traffic like to any other.
+ */
+public class TrafficReplay {
+
+    private static final class Replayer {
+        final AsyncChatClient client;
+        final String suffix;
+
+        Replayer(AsyncChatClient client, String suffix) {
+            this.client = client;
+            this.suffix = suffix;
+        }
+    }
+
+    private final String host;
+    private final int port;
+    private final double speed;     // <= 0 = as fast as possible
+    private final int clones;
+
+    // Room message sent but not echoed to its sender yet
+    private static final class Pending {
+        final AsyncChatClient sender;
+        final long sentAt;
+
+        Pending(AsyncChatClient sender, long sentAt) {
+            this.sender = sender;
+            this.sentAt = sentAt;
+        }
+    }
+
+    /**
+     * Reads a capture file entry by entry, in the order it was recorded.
+     */
+    static final class CaptureReader implements Closeable {
+        private final DataInputStream in;
+        private long nanos;
+        private int connectionId;
+        private byte[] frame;
+
+        CaptureReader(File capture) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(capture), 64 * 1024));
+            try {
+                if (in.readInt() != TrafficRecorder.MAGIC) {
+                    throw new IOException("Not a capture file: " + capture);
+                }
+                int version = in.readInt();
+                if (version != TrafficRecorder.VERSION) {
+                    throw new IOException("Unsupported capture version: " + version);
+                }
+            } catch (IOException e) {
+                in.close();
+                throw e;
+            }
+        }
+
+        // Advance to the next entry; false at the end of the file
+        boolean next() throws IOException {
+            try {
+                nanos = in.readLong();
+            } catch (EOFException e) {
+                return false;
+            }
+            connectionId = in.readInt();
+            int length = in.readInt();
+            frame = length == TrafficRecorder.CLOSED ? null : in.readNBytes(length);
+            return true;
+        }
+
+        long nanos() { return nanos; }
+        int connectionId() { return connectionId; }
+        byte[] frame() { return frame; }     // null: the connection was closed
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    private final Map<Long, Pending> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong nextMessageId = new AtomicLong(System.currentTimeMillis() << 20);
+    private final AtomicLong received = new AtomicLong();
+    private long[] latencies = new long[1024];
+    private int latencyCount;
+
+    public TrafficReplay(String host, int port, double speed, int clones) {
+        this.host = host;
+        this.port = port;
+        this.speed = speed;
+        this.clones = Math.max(1, clones);
+    }
+
+    public void replay(File capture) throws Exception {
+        // Pass 1: open every connection up front so handshakes do not distort the timing
+        Set<Integer> connectionIds = scanConnections(capture);
+        Map<Integer, Replayer[]> replayers = new HashMap<>();
+        for (int id : connectionIds) {
+            Replayer[] group = new Replayer[clones];
+            for (int c = 0; c < clones; c++) {
+                AsyncChatClient client = new AsyncChatClient(host, port, true);
+                client.on(MessageType.TEXT_MESSAGE, msg -> onEcho(client, msg));
+                client.connect();
+                group[c] = new Replayer(client, c == 0 ? "" : "-" + c);
+            }
+            replayers.put(id, group);
+        }
+        System.out.println("Opened " + connectionIds.size() * clones + " connections");
+
+        // Pass 2: send
+        long sent = 0;
+        long start = System.nanoTime();
+        try (CaptureReader in = new CaptureReader(capture)) {
+            while (in.next()) {
+                byte[] frame = in.frame();
+                if (speed > 0) {
+                    waitUntil(start + (long) (in.nanos() / speed));
+                }
+
+                for (Replayer r : replayers.get(in.connectionId())) {
+                    if (frame == null) {
+                        r.client.close();
+                    } else {
+                        send(r, MessageDeserializer.deserialize(frame));
+                        sent++;
+                    }
+                }
+            }
+        }
+
+        // Give the last echoes a moment to arrive
+        long sendNanos = System.nanoTime() - start;
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!inFlight.isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+
+        report(sent, sendNanos);
+        for (Replayer[] group : replayers.values()) {
+            for (Replayer r : group) {
+                r.client.close();
+            }
+        }
+    }
+
+    private void send(Replayer r, ChatMessage original) {
+        ChatMessage msg = new ChatMessage(
+                original.getType(),
+                rename(original.getSender(), r.suffix),
+                rename(original.getRecipient(), r.suffix),
+                original.getRoomId(),
+                original.getContent(),
+                System.currentTimeMillis()
+        );
+        if (msg.getType() == MessageType.TEXT_MESSAGE) {
+            long id = nextMessageId.incrementAndGet();
+            msg.setMessageId(id);
+            inFlight.put(id, new Pending(r.client, System.nanoTime()));
+        } else {
+            msg.setMessageId(original.getMessageId());
+        }
+        r.client.send(msg);
+    }
+
+    private static String rename(String name, String suffix) {
+        return (name == null || name.isEmpty()) ? name : name + suffix;
+    }
+
+    private void onEcho(AsyncChatClient receiver, ChatMessage msg) {
+        long now = System.nanoTime();
+        received.incrementAndGet();
+        Pending pending = inFlight.get(msg.getMessageId());
+        if (pending != null && pending.sender == receiver && inFlight.remove(msg.getMessageId(), pending)) {
+            addLatency(now - pending.sentAt);
+        }
+    }
+
+    private synchronized void addLatency(long nanos) {
+        if (latencyCount == latencies.length) {
+            latencies = Arrays.copyOf(latencies, latencyCount * 2);
+        }
+        latencies[latencyCount++] = nanos;
+    }
+
+    private synchronized void report(long sent, long sendNanos) {
+        double seconds = sendNanos / 1e9;
+        System.out.println("Frames sent:     " + sent);
+        System.out.println("Send duration:   " + String.format("%.3f s", seconds));
+        System.out.println("Send throughput: " + String.format("%.0f frames/s", sent / Math.max(seconds, 1e-9)));
+        System.out.println("Room messages received: " + received.get());
+
+        if (latencyCount == 0) {
+            System.out.println("Latency: no room message echoes measured");
+            return;
+        }
+        long[] sorted = Arrays.copyOf(latencies, latencyCount);
+        Arrays.sort(sorted);
+        System.out.println("Echo latency (" + latencyCount + " samples, " + inFlight.size() + " lost):"
+                + " p50=" + millis(percentile(sorted, 50))
+                + " p99=" + millis(percentile(sorted, 99))
+                + " max=" + millis(sorted[sorted.length - 1]));
+    }
+
+    private static long percentile(long[] sorted, int p) {
+        int index = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, index)];
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.2f ms", nanos / 1e6);
+    }
+
+    private static void waitUntil(long deadlineNanos) {
+        long remaining;
+        while ((remaining = deadlineNanos - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    private static Set<Integer> scanConnections(File capture) throws IOException {
+        Set<Integer> ids = new LinkedHashSet<>();
+        try (CaptureReader in = new CaptureReader(capture)) {
+            while (in.next()) {
+                ids.add(in.connectionId());
+            }
+        }
+        return ids;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.out.println("Usage: java TrafficReplay <captureFile> <host> <port> [speed|max] [clones]");
+            System.out.println("  speed: 1 = real time (default), 10 = ten times faster, max = no delay");
+            return;
+        }
+
+        File capture = new File(args[0]);
+        String host = args[1];
+        int port = Integer.parseInt(args[2]);
+        double speed = 1.0;
+        if (args.length > 3) {
+            speed = args[3].equalsIgnoreCase("max") ? 0 : Double.parseDouble(args[3]);
+        }
+        int clones = args.length > 4 ? Integer.parseInt(args[4]) : 1;
+
+        new TrafficReplay(host, port, speed, clones).replay(capture);
+        System.exit(0);
+    }
+}
@@ -0,0 +1,155 @@
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One chunked transfer passing through the server.
+ *
+ * Large content is sent as a stream of TRANSFER_CHUNK messages instead of one big
+ * ChatMessage. Each chunk is relayed to the recipients as soon as it arrives and never
+ * stored, so the server holds at most one credit window of chunks per transfer,
+ * whatever the size of the payload.
+ *
+ *   sender -> server   TRANSFER_START  recipient or roomId, content "name=<name>;size=<bytes>",
+ *                                      messageId = transfer ID chosen by the sender
+ *   server -> sender   TRANSFER_CREDIT content = number of further chunks allowed
+ *   sender -> server   TRANSFER_CHUNK  content = Base64 data, messageId = the sender's transfer ID
+ *   sender -> server   TRANSFER_END    content "done" (or "aborted: <reason>")
+ *   server -> sender   TRANSFER_END    from "server", content "aborted: <reason>" if the server gives up
+ *
+ * Recipients get START, CHUNKs and END from the original sender, with a server-wide
+ * transfer ID as messageId. Credit for a chunk goes back to the sender once the chunk
+ * has been written to every recipient, so a slow recipient slows the sender down instead
+ * of filling the server's memory. A chunk sent without credit aborts the transfer.
+ */
+public class TransferRelay {
+
+    private static final AtomicLong NEXT_ID = new AtomicLong();
+
+    private final long id = NEXT_ID.incrementAndGet();
+    private final long clientId;
+    private final ClientSession sender;
+    private final String senderName;
+    private final String roomId;
+    private final List<ClientSession> recipients;
+    private final int creditBatch;
+
+    private final AtomicInteger credit;                             // chunks the sender may still send
+    private final AtomicInteger written = new AtomicInteger();      // written chunks not credited yet
+    private final AtomicLong bytes = new AtomicLong();              // as relayed, i.e. Base64
+    private final AtomicBoolean finished = new AtomicBoolean(false);
+
+    /**
+     * @param window chunks the sender may have in flight; credit is returned in batches
+     *               of half a window to keep the number of credit messages down
+     */
+    public TransferRelay(long clientId, ClientSession sender, String roomId, List<ClientSession> recipients,
+                         int window) {
+        this.clientId = clientId;
+        this.sender = sender;
+        this.senderName = sender.getUsername();
+        this.roomId = roomId;
+        this.recipients = recipients;
+        this.creditBatch = Math.max(1, window / 2);
+        this.credit = new AtomicInteger(window);
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    // Forward the START to the recipients and give the sender its first window
+    public void start(ChatMessage request) throws IOException {
+        relay(MessageType.TRANSFER_START, request.getRecipient(), request.getContent(), null);
+        grant(credit.get());
+    }
+
+    /**
+     * Relay one chunk. Returns false if the sender had no credit left;
+     * the caller must then abort the transfer.
+     */
+    public boolean chunk(String content) {
+        if (credit.decrementAndGet() < 0) {
+            return false;
+        }
+        bytes.addAndGet(content.length());
+
+        // Credited once every recipient has it on the wire (or is gone)
+        AtomicInteger pending = new AtomicInteger(recipients.size());
+        relay(MessageType.TRANSFER_CHUNK, null, content, () -> {
+            if (pending.decrementAndGet() == 0) {
+                chunkWritten();
+            }
+        });
+        return true;
+    }
+
+    // Normal end; returns false if the transfer had already ended
+    public boolean end(String status) {
+        if (!finished.compareAndSet(false, true)) {
+            return false;
+        }
+        relay(MessageType.TRANSFER_END, null, status, null);
+        return true;
+    }
+
+    // End on the server's initiative: tell the recipients, and the sender if it is still there
+    public boolean abort(String reason) {
+        if (!end("aborted: " + reason)) {
+            return false;
+        }
+        ChatMessage notice = new ChatMessage(MessageType.TRANSFER_END, "server", senderName, roomId,
+                "aborted: " + reason, System.currentTimeMillis());
+        notice.setMessageId(clientId);
+        try {
+            sender.send(notice);
+        } catch (IOException ignored) {
+            // sender already gone
+        }
+        return true;
+    }
+
+    private void chunkWritten() {
+        if (written.incrementAndGet() >= creditBatch) {
+            int n = written.getAndSet(0);
+            if (n > 0) {
+                credit.addAndGet(n);
+                grant(n);
+            }
+        }
+    }
+
+    private void grant(int chunks) {
+        if (finished.get()) {
+            return;
+        }
+        ChatMessage msg = new ChatMessage(MessageType.TRANSFER_CREDIT, "server", senderName, roomId,
+                String.valueOf(chunks), System.currentTimeMillis());
+        msg.setMessageId(clientId);
+        try {
+            sender.send(msg);
+        } catch (IOException ignored) {
+            // sender gone; its transfers are aborted on disconnect
+        }
+    }
+
+    // Serialize once, queue the same frame for every recipient
+    private void relay(MessageType type, String recipient, String content, Runnable onWritten) {
+        ChatMessage msg = new ChatMessage(type, senderName, recipient, roomId, content, System.currentTimeMillis());
+        msg.setMessageId(id);
+        byte[] frame = MessageSerializer.serialize(msg);
+        for (ClientSession r : recipients) {
+            if (onWritten == null) {
+                r.sendFrame(type, frame);
+            } else {
+                r.sendFrame(type, frame, onWritten);
+            }
+        }
+    }
+}